@@ -0,0 +1,43 @@
+#!/usr/bin/env bash
+# Compares staging N files one `add` per file (the old only way) with a
+# single batched `add .`.
+#
+# usage: benchmarks/add.sh [N] [CLASSPATH]
+#     N          number of files (default 2000)
+#     CLASSPATH  where the compiled gitlet classes are (default: repo root,
+#                i.e. after `make`)
+
+set -e
+N=${1:-2000}
+CP=$(cd "${2:-$(dirname "$0")/..}" && pwd)
+GITLET="java -cp $CP gitlet.Main"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+setup() {
+    rm -rf "$WORK/repo" && mkdir "$WORK/repo" && cd "$WORK/repo"
+    $GITLET init
+    for i in $(seq 1 "$N"); do
+        printf 'file %d\n%s\n' "$i" "$RANDOM$RANDOM" > "f$i.txt"
+    done
+}
+
+now() {
+    date +%s.%N
+}
+
+setup
+start=$(now)
+for i in $(seq 1 "$N"); do
+    $GITLET add "f$i.txt"
+done
+loop=$(awk "BEGIN { print $(now) - $start }")
+
+setup
+start=$(now)
+$GITLET add .
+batch=$(awk "BEGIN { print $(now) - $start }")
+
+printf 'files: %d\n' "$N"
+printf 'add per file: %8.2f s\n' "$loop"
+printf 'add .:        %8.2f s\n' "$batch"
@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Utils.sha1 against the implementation it replaced (a new MessageDigest
+ *  per call and a Formatter for the hex), the hex conversions on their own,
+ *  and lookups in sets keyed by hex Strings and by ObjectIds.
+ *
+ *  SIZE is the length of the hashed data: about a commit (200 bytes) and a
+ *  small source file (4 KiB). Run with -prof gc to see allocation per call.
+ *
+ *  @author Qiyue Hao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"200", "4096"})
+    int size;
+
+    private byte[] data;
+    private byte[] raw;
+    private String hex;
+
+    // 100000 ids, held both ways, and a copy of one of them to look up
+    private Set<String> hexSet;
+    private Set<ObjectId> idSet;
+    private Map<String, String> hexMap;
+    private Map<ObjectId, String> idMap;
+    private String hexKey;
+    private ObjectId idKey;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(61);
+        data = new byte[size];
+        random.nextBytes(data);
+        raw = Utils.sha1Raw(data);
+        hex = Utils.sha1(data);
+
+        hexSet = new HashSet<>();
+        idSet = new HashSet<>();
+        hexMap = new HashMap<>();
+        idMap = new HashMap<>();
+        byte[] r = new byte[ObjectId.RAW_LENGTH];
+        for (int i = 0; i < 100_000; i += 1) {
+            random.nextBytes(r);
+            String h = ObjectId.toHex(r);
+            hexSet.add(h);
+            idSet.add(ObjectId.fromRaw(r));
+            hexMap.put(h, h);
+            idMap.put(ObjectId.fromRaw(r), h);
+            if (i == 50_000) {
+                // equal to the stored key, but not the same object
+                hexKey = new String(h.toCharArray());
+                idKey = ObjectId.fromHex(hexKey);
+            }
+        }
+    }
+
+    /* HASHING */
+
+    @Benchmark
+    public String sha1Legacy() {
+        return legacySha1(data);
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(data);
+    }
+
+    @Benchmark
+    public byte[] sha1Raw() {
+        return Utils.sha1Raw(data);
+    }
+
+    /* HEX CONVERSION */
+
+    @Benchmark
+    public String toHexLegacy() {
+        Formatter result = new Formatter();
+        for (byte b : raw) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public String toHex() {
+        return ObjectId.toHex(raw);
+    }
+
+    @Benchmark
+    public byte[] toRawLegacy() {
+        byte[] result = new byte[ObjectId.RAW_LENGTH];
+        for (int i = 0; i < ObjectId.RAW_LENGTH; i += 1) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public byte[] toRaw() {
+        return ObjectId.toRaw(hex);
+    }
+
+    /* LOOKUP */
+
+    @Benchmark
+    public boolean containsHex() {
+        return hexSet.contains(hexKey);
+    }
+
+    @Benchmark
+    public boolean containsObjectId() {
+        return idSet.contains(idKey);
+    }
+
+    @Benchmark
+    public String getHex() {
+        return hexMap.get(hexKey);
+    }
+
+    @Benchmark
+    public String getObjectId() {
+        return idMap.get(idKey);
+    }
+
+    /** Utils.sha1 as it was. */
+    static String legacySha1(Object... vals) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (Object val : vals) {
+                if (val instanceof byte[]) {
+                    md.update((byte[]) val);
+                } else if (val instanceof String) {
+                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    throw new IllegalArgumentException("improper type to sha1");
+                }
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+}
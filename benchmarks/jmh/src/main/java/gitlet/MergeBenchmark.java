@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** LineDiff.diff (Myers and histogram) and ThreeWayMerge.merge on multi-MB
+ *  text files, to check they stay near-linear in the size of the file.
+ *
+ *  MEGABYTES is the size of the split point version, in lines of about 90
+ *  bytes. The current version changes one line in EDITRATE of the first
+ *  half of the file, the given version as many of the second half, so the
+ *  merge is clean and the number of edits grows with the file. Time per
+ *  call should grow about 4x from each size to the next; run with
+ *  -jvmArgs -Xmx2g for the largest.
+ *
+ *  @author Qiyue Hao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"1", "4", "16"})
+    int megabytes;
+
+    @Param({"0.001", "0.01"})
+    double editRate;
+
+    private byte[] base;
+    private byte[] ours;
+    private byte[] theirs;
+    private int[] baseIds;
+    private int[] oursIds;
+
+    @Setup
+    public void setup() {
+        int lines = (megabytes << 20) / 90;
+        Random random = new Random(22);
+        base = text(lines, random, 0, 0);
+        ours = text(lines, random, 0, lines / 2);
+        theirs = text(lines, random, lines / 2, lines);
+        LineDiff.Interner interner = new LineDiff.Interner();
+        baseIds = interner.split(base).ids;
+        oursIds = interner.split(ours).ids;
+    }
+
+    @Benchmark
+    public List<LineDiff.Hunk> diff() {
+        return LineDiff.diff(baseIds, oursIds);
+    }
+
+    @Benchmark
+    public List<LineDiff.Hunk> histogram() {
+        return LineDiff.diff(baseIds, oursIds, LineDiff.Algorithm.HISTOGRAM);
+    }
+
+    @Benchmark
+    public ThreeWayMerge.Result merge() {
+        return ThreeWayMerge.merge(base, ours, theirs, false);
+    }
+
+    // LINES lines, some of those in [FROM, TO) edited
+    private byte[] text(int lines, Random random, int from, int to) {
+        Random words = new Random(7);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            if (i >= from && i < to && random.nextDouble() < editRate) {
+                text.append("edited line ").append(random.nextInt()).append('\n');
+                words.nextLong();
+            } else {
+                text.append("line ").append(i).append(' ').append(Long.toHexString(words.nextLong()))
+                        .append(" and some more text to bring it to about ninety bytes\n");
+            }
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
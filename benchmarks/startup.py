@@ -0,0 +1,101 @@
+#!/usr/bin/env python3
+"""Startup benchmark for the one-shot gitlet CLI.
+
+Runs init / add / commit / status / log in fresh scratch repositories,
+once with plain `java -cp gitlet.jar` and once with the class-data-sharing
+archive built by `make cds`, and reports the median time to first output
+of each command in milliseconds. Commands that print nothing (init, add,
+commit) count until the process exits.
+
+usage: benchmarks/startup.py [-n RUNS] [--jar gitlet.jar] [--archive gitlet.jsa]
+"""
+
+import argparse
+import os
+import shutil
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+
+# (command, args) in the order they run in each scratch repository
+SESSION = [
+    ("init", []),
+    ("add", ["a.txt", "b.txt"]),
+    ("commit", ["first"]),
+    ("status", []),
+    ("log", []),
+]
+
+
+def first_output(cmd, cwd):
+    """Seconds from starting CMD until its first byte of output, or until
+    it exits if it prints nothing. The rest of its output is drained."""
+    start = time.perf_counter()
+    proc = subprocess.Popen(cmd, cwd=cwd, stdout=subprocess.PIPE,
+                            stderr=subprocess.DEVNULL)
+    proc.stdout.read(1)
+    elapsed = time.perf_counter() - start
+    proc.stdout.read()
+    proc.wait()
+    return elapsed
+
+
+def session(java, runs):
+    """Runs SESSION RUNS times with the command prefix JAVA and returns
+    {command: [seconds...]}."""
+    times = {name: [] for name, _ in SESSION}
+    for _ in range(runs):
+        repo = tempfile.mkdtemp(prefix="gitlet-startup-")
+        try:
+            for name in ("a.txt", "b.txt"):
+                with open(os.path.join(repo, name), "w") as f:
+                    f.write(name + "\n")
+            for name, args in SESSION:
+                times[name].append(first_output(java + [name] + args, repo))
+        finally:
+            shutil.rmtree(repo)
+    return times
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.splitlines()[0])
+    parser.add_argument("-n", "--runs", type=int, default=10)
+    parser.add_argument("--jar", default=os.path.join(ROOT, "gitlet.jar"))
+    parser.add_argument("--archive", default=os.path.join(ROOT, "gitlet.jsa"))
+    opts = parser.parse_args()
+
+    jar = os.path.abspath(opts.jar)
+    archive = os.path.abspath(opts.archive)
+    if not os.path.isfile(jar):
+        sys.exit("no %s; run make jar (or make cds)" % jar)
+
+    plain = ["java", "-cp", jar, "gitlet.Main"]
+    configs = [("plain", plain)]
+    if os.path.isfile(archive):
+        configs.append(("cds", ["java", "-XX:SharedArchiveFile=" + archive,
+                                "-Xshare:auto", "-cp", jar, "gitlet.Main"]))
+    else:
+        print("no %s; run make cds to compare with an archive" % archive)
+
+    results = {label: session(java, opts.runs) for label, java in configs}
+
+    header = "%-8s" % "command" + "".join("%12s" % label for label, _ in configs)
+    if len(configs) == 2:
+        header += "%10s" % "speedup"
+    print("median time to first output, ms (%d runs)" % opts.runs)
+    print(header)
+    for name, _ in SESSION:
+        medians = [statistics.median(results[label][name]) * 1000
+                   for label, _ in configs]
+        line = "%-8s" % name + "".join("%12.1f" % m for m in medians)
+        if len(medians) == 2:
+            line += "%9.2fx" % (medians[0] / medians[1])
+        print(line)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+
+/** File contents in and out of the object store, as bytes only.
+ *
+ *  Blobs are opaque: nothing here decodes them to a String, so binary files
+ *  and text that is not valid UTF-8 come back exactly as they went in, and
+ *  no file is held on the heap whole except by read, for the line merge
+ *  of a file both sides of a merge changed. Blobs come in through one
+ *  streaming pass that hashes while it copies (put), and go out as a
+ *  stream, a channel, or channel to channel into a working file, which
+ *  for uncompressed blobs is a kernel copy (FileChannel.transferTo).
+ *
+ *  @author Qiyue Hao
+ */
+class BlobStore {
+
+    /** Stores the contents of FILE, unless they are stored already, and
+     *  returns their hash. */
+    static String put(File file) {
+        return ObjectStore.ingest(ObjectStore.BLOB, file);
+    }
+
+    /** Returns the hash the contents of FILE are or would be stored under,
+     *  storing nothing. */
+    static String hash(File file) {
+        return ObjectStore.hash(file);
+    }
+
+    /** Returns a stream of the contents of blob HASH. */
+    static InputStream open(String hash) {
+        InputStream in = ObjectStore.open(ObjectStore.BLOB, hash);
+        if (in == null) {
+            throw error("Missing blob %s.", hash);
+        }
+        return in;
+    }
+
+    /** Returns a channel over the contents of blob HASH. */
+    static ReadableByteChannel channel(String hash) {
+        ReadableByteChannel in = ObjectStore.openChannel(ObjectStore.BLOB, hash);
+        if (in == null) {
+            throw error("Missing blob %s.", hash);
+        }
+        return in;
+    }
+
+    /** Returns the contents of blob HASH. */
+    static byte[] read(String hash) {
+        byte[] data = ObjectStore.read(ObjectStore.BLOB, hash);
+        if (data == null) {
+            throw error("Missing blob %s.", hash);
+        }
+        return data;
+    }
+
+    /** Writes the contents of blob HASH to OUT. */
+    static void copyTo(String hash, WritableByteChannel out) {
+        ObjectStore.transferTo(ObjectStore.BLOB, hash, out);
+    }
+
+    /** Overwrites, or creates, FILE with the contents of blob HASH. */
+    static void writeTo(String hash, File file) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            copyTo(hash, out);
+        }
+    }
+}
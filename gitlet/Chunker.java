@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Splits a stream into content-defined chunks, FastCDC style, so that an
+ *  edit to a large file changes only the chunks around it: the chunks
+ *  before and after it come out the same in both versions, and are stored
+ *  once (see ObjectStore.ingest).
+ *
+ *  A Gear hash (h = 2h + GEAR[byte]) is rolled over the bytes after the
+ *  first MIN_SIZE of a chunk, and the chunk ends after the first byte where
+ *  the top bits of h are all 0. Each bit of h depends on the last 64 bytes
+ *  at most, so where a chunk ends depends only on the bytes there. Before
+ *  AVG_SIZE more bits are tested than after it (normalized chunking), so
+ *  chunk sizes cluster around AVG_SIZE, and no chunk is over MAX_SIZE.
+ *
+ *  GEAR is fixed forever: other values would cut the same file into
+ *  other chunks than those already stored.
+ *
+ *  @author Qiyue Hao
+ */
+class Chunker {
+
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVG_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    // top 18 bits before AVG_SIZE, top 14 after: AVG_SIZE is 2^16
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // SplitMix64 from a fixed seed
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    // twice MAX_SIZE, so bytes are moved back to the front only when less
+    // than a whole MAX_SIZE window is left, not after every chunk
+    private final byte[] buf = new byte[2 * MAX_SIZE];
+    // where the last chunk starts, its length, and the bytes buffered
+    private int start;
+    private int taken;
+    private int filled;
+    private boolean eof;
+
+    /** A chunker of the bytes of IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Reads the next chunk, which is then buffer()[offset() .. offset() +
+     *  its length), and returns its length, or 0 at the end of the stream.
+     *  The chunk is valid until the next call. */
+    int next() throws IOException {
+        start += taken;
+        if (!eof && filled - start < MAX_SIZE) {
+            System.arraycopy(buf, start, buf, 0, filled - start);
+            filled -= start;
+            start = 0;
+            while (!eof && filled < buf.length) {
+                int n = in.read(buf, filled, buf.length - filled);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    filled += n;
+                }
+            }
+        }
+        taken = cut(buf, start, filled - start);
+        return taken;
+    }
+
+    /** The buffer holding the chunk last returned by next. */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /** Where the chunk last returned by next starts in buffer(). */
+    int offset() {
+        return start;
+    }
+
+    /** Returns the length of the chunk that starts DATA[OFF .. OFF + N). */
+    static int cut(byte[] data, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(AVG_SIZE, n);
+        int end = Math.min(MAX_SIZE, n);
+        long h = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            h = (h << 1) + GEAR[data[off + i] & 0xff];
+            if ((h & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            h = (h << 1) + GEAR[data[off + i] & 0xff];
+            if ((h & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -1,17 +1,59 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 /** Represents a gitlet commit object.
+ *
+ *  A commit is stored in a compact binary form, which is also what its
+ *  hash is computed over, so hashes do not depend on the JVM:
+ *      "GCMT" | version (byte) | parents (byte: 0, 1 or 2)
+ *      | parent hashes (20 raw bytes each)
+ *      | time (long, epoch ms) | UTC offset (int, seconds)
+ *      | message (int length + UTF-8 bytes)
+ *      | root tree hash (20 raw bytes)
+ *  The files of the commit are in its root Tree, read only when asked for,
+ *  so a commit has the same small size whatever the number of files.
+ *  Version 1 commits list their files inline instead of the tree:
+ *      | file count (int) | per file: name (int length + UTF-8 bytes)
+ *                                    | blob hash (20 raw bytes)
+ *  and commits written by older versions with Java serialization are
+ *  still read; see decode.
  *
  *  @author Qiyue
  */
 public class Commit implements Serializable {
+
+    // the class as it was when commits were Java-serialized, so that those
+    // commits still deserialize
+    private static final long serialVersionUID = 5596793323842635832L;
+
+    static final byte[] MAGIC = {'G', 'C', 'M', 'T'};
+    static final byte VERSION = 2;
+    // commits with their file map inline instead of a root tree
+    private static final byte VERSION_INLINE = 1;
+
+    // zone commit dates are shown in
+    private static final ZoneId DISPLAY_ZONE = ZoneId.of("Asia/Shanghai");
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+            .ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
+            .withZone(DISPLAY_ZONE)
+            .withLocale(Locale.ENGLISH);
+
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -25,12 +67,22 @@ public class Commit implements Serializable {
     /** The message of this Commit. */
     private String message;
 
+    // commit time, in ms since the epoch, and the UTC offset it was made at
+    private transient long epochMillis;
+    private transient int utcOffset;
+
+    // only set in commits Java-serialized by older versions; see readObject
     private ZonedDateTime timestamp;
     private String timestampString;
 
+    // hash of the root tree of this commit's files; null until known
+    private transient String tree;
+
     // a mapping of file names "wug.txt" to blob references "d12da..."
-    // Use: put(K, V), get(K)
-    Map<String, String> fileToBlob = new TreeMap<>();
+    // read from the root tree on first use; see getFileToBlob
+    private Map<String, String> fileToBlob;
+    // estimated heap use of fileToBlob once read, see weight
+    private transient long filesWeight;
 
     public Commit (String message, String parentA, String parentB) {
         this.message = message;
@@ -41,27 +93,15 @@ public class Commit implements Serializable {
     // factory method only for init()
     public static Commit createInitialCommit() {
         Commit initial = new Commit("initial commit", null, null);
-        initial.timestampString = formattedEpochTime();
-        // Output: 1970-01-01T00:00:00Z
+        initial.setFileToBlob(new TreeMap<>());
+        // 1970-01-01T00:00:00Z, at the offset dates are shown in
+        initial.epochMillis = 0;
+        initial.utcOffset = DISPLAY_ZONE.getRules().getOffset(Instant.EPOCH).getTotalSeconds();
         return initial;
     }
 
-    private static String formattedEpochTime() {
-
-        DateTimeFormatter formatter = DateTimeFormatter
-                .ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
-                .withZone(ZoneId.of("Asia/Shanghai"));
-        ZonedDateTime epoch = ZonedDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
-        return formatter.format(epoch).toString();
-    }
-
     static String formattedTime(ZonedDateTime timestamp) {
-
-        DateTimeFormatter formatter = DateTimeFormatter
-                .ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
-                .withZone(ZoneId.of("Asia/Shanghai"))
-                .withLocale(Locale.ENGLISH);
-        return formatter.format(timestamp).toString();
+        return FORMATTER.format(timestamp);
     }
 
     public void setMessage(String msg) {
@@ -73,23 +113,85 @@ public class Commit implements Serializable {
     }
 
     public void setTimestamp() {
-        this.timestamp = ZonedDateTime.now(ZoneId.of("Asia/Shanghai"));
-        this.timestampString = formattedTime(this.timestamp);
+        ZonedDateTime now = ZonedDateTime.now(DISPLAY_ZONE);
+        this.epochMillis = now.toInstant().toEpochMilli();
+        this.utcOffset = now.getOffset().getTotalSeconds();
     }
 
     public String getTimestampString() {
-        return timestampString;
+        return formatTimestamp(epochMillis);
+    }
+
+    /** Returns EPOCHMILLIS the way log shows commit dates. */
+    static String formatTimestamp(long epochMillis) {
+        return FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /** Returns the time TEXT names, in milliseconds since the epoch. TEXT
+     *  is yyyy-MM-dd, optionally followed by HH:mm or HH:mm:ss, in the zone
+     *  commit dates are shown in. A date alone means the start of that day,
+     *  or its last millisecond if ENDOFDAY. Returns null if TEXT is not a
+     *  date. */
+    static Long parseDate(String text, boolean endOfDay) {
+        String[] parts = text.trim().split("[ T]", 2);
+        try {
+            LocalDate date = LocalDate.parse(parts[0]);
+            if (parts.length == 1) {
+                ZonedDateTime start = date.atStartOfDay(DISPLAY_ZONE);
+                ZonedDateTime time = endOfDay ? start.plusDays(1).minusNanos(1_000_000) : start;
+                return time.toInstant().toEpochMilli();
+            }
+            LocalTime time = LocalTime.parse(parts[1]);
+            return date.atTime(time).atZone(DISPLAY_ZONE).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            return null;
+        }
     }
 
     public ZonedDateTime getTimestamp() {
-        if (timestamp == null && timestampString != null) {
-            DateTimeFormatter formatter = DateTimeFormatter
-                    .ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
-                    .withZone(ZoneId.of("Asia/Shanghai"))
-                    .withLocale(Locale.ENGLISH);
-            timestamp = ZonedDateTime.parse(timestampString, formatter);
+        return Instant.ofEpochMilli(epochMillis).atZone(ZoneOffset.ofTotalSeconds(utcOffset));
+    }
+
+    /** Returns the commit time, in milliseconds since the epoch. */
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    /** Returns the hash of the root tree of this commit's files, storing
+     *  the tree first if this commit lists its files inline. */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.write(fileToBlob);
+        }
+        return tree;
+    }
+
+    /** Returns the mapping of every file of this commit to its blob hash,
+     *  reading it from the root tree if that was not done yet. The map is
+     *  read-only: commits are shared through CommitCache. */
+    public Map<String, String> getFileToBlob() {
+        if (fileToBlob == null) {
+            fileToBlob = Tree.read(tree);
         }
-        return timestamp;
+        return Collections.unmodifiableMap(fileToBlob);
+    }
+
+    /** Returns an estimate of the heap this commit takes, in bytes. */
+    long weight() {
+        // object headers and fields, hex hashes, and about 150 bytes per
+        // map entry (node, name and hex blob hash)
+        if (fileToBlob != null && filesWeight == 0) {
+            for (String name : fileToBlob.keySet()) {
+                filesWeight += 150 + 2L * name.length();
+            }
+        }
+        return 160 + 2L * message.length() + 3 * 96 + filesWeight;
+    }
+
+    /** Sets the files of this commit and stores their trees. */
+    public void setFileToBlob(Map<String, String> files) {
+        this.fileToBlob = new TreeMap<>(files);
+        this.tree = Tree.write(this.fileToBlob);
     }
 
     public void setParentA(String aHash) {
@@ -120,4 +222,116 @@ public class Commit implements Serializable {
         }
         return parents;
     }
+
+    /* ENCODING */
+
+    /** Returns the canonical bytes of this commit, which are both what is
+     *  stored and what its hash is computed over. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 + message.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(parentB != null ? 2 : parentA != null ? 1 : 0);
+            if (parentA != null) {
+                out.write(Pack.toRaw(parentA));
+            }
+            if (parentB != null) {
+                out.write(Pack.toRaw(parentB));
+            }
+            out.writeLong(epochMillis);
+            out.writeInt(utcOffset);
+            writeString(out, message);
+            out.write(Pack.toRaw(getTree()));
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the hash of this commit. */
+    String hash() {
+        return Utils.sha1(encode());
+    }
+
+    /** Returns the commit stored as DATA, in either the binary form or
+     *  the Java serialization of older versions. */
+    static Commit decode(byte[] data) {
+        if (!hasMagic(data)) {
+            return Utils.deserialize(data, Commit.class);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        in.position(MAGIC.length);
+        byte version = in.get();
+        if (version != VERSION && version != VERSION_INLINE) {
+            throw Utils.error("Unsupported commit version.");
+        }
+        int parents = in.get();
+        String pA = parents >= 1 ? readHash(in) : null;
+        String pB = parents >= 2 ? readHash(in) : null;
+        long millis = in.getLong();
+        int offset = in.getInt();
+        Commit cmt = new Commit(readString(in), pA, pB);
+        cmt.epochMillis = millis;
+        cmt.utcOffset = offset;
+        if (version == VERSION) {
+            cmt.tree = readHash(in);
+            return cmt;
+        }
+        cmt.fileToBlob = new TreeMap<>();
+        int files = in.getInt();
+        for (int i = 0; i < files; i += 1) {
+            String name = readString(in);
+            cmt.fileToBlob.put(name, readHash(in));
+        }
+        return cmt;
+    }
+
+    private static boolean hasMagic(byte[] data) {
+        if (data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static String readHash(ByteBuffer in) {
+        byte[] raw = new byte[Pack.RAW_LENGTH];
+        in.get(raw);
+        return Pack.toHex(raw);
+    }
+
+    // a commit Java-serialized by an older version keeps its time as a
+    // ZonedDateTime, or only as a formatted string for the initial commit
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ZonedDateTime time = timestamp;
+        if (time == null && timestampString != null) {
+            time = ZonedDateTime.parse(timestampString, FORMATTER);
+        }
+        if (time != null) {
+            epochMillis = time.toInstant().toEpochMilli();
+            utcOffset = time.getOffset().getTotalSeconds();
+        }
+        if (fileToBlob == null) {
+            fileToBlob = new TreeMap<>();
+        }
+    }
 }
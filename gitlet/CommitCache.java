@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Parsed commits, by hash, so that a commit read once is not read and
+ *  decoded again. Commits never change once made, so entries never go
+ *  stale; the least recently used ones are dropped once the cache holds
+ *  more than core.commitCache bytes (see Config; default 32 MiB, 0 turns
+ *  the cache off). Sizes are estimates of heap use, and a commit whose
+ *  file map was read after it was cached is charged for it on its next
+ *  lookup.
+ *
+ *  Within one command this saves re-reading commits that log, merge and
+ *  the commit graph look at more than once; in daemon mode it lasts from
+ *  one command to the next.
+ *
+ *  @author Qiyue Hao
+ */
+class CommitCache {
+
+    static final long DEFAULT_CAPACITY = 32L << 20;
+
+    private static final Map<String, Commit> COMMITS = new LinkedHashMap<>(256, 0.75f, true);
+    private static final Map<String, Long> WEIGHTS = new HashMap<>();
+    private static long weight;
+    // core.commitCache, and the Config generation it was read in
+    private static long capacity;
+    private static int capacityGeneration = -1;
+    private static long hits;
+    private static long misses;
+
+    /** Returns commit HASH if it is cached, or null. */
+    static synchronized Commit get(String hash) {
+        Commit cmt = COMMITS.get(hash);
+        if (cmt == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        // its file map may have been read since it was cached
+        long w = cmt.weight();
+        weight += w - WEIGHTS.put(hash, w);
+        evict(capacity());
+        return cmt;
+    }
+
+    /** Caches commit CMT, whose hash is HASH. */
+    static synchronized void put(String hash, Commit cmt) {
+        long capacity = capacity();
+        if (capacity <= 0) {
+            return;
+        }
+        if (COMMITS.put(hash, cmt) == null) {
+            long w = cmt.weight();
+            WEIGHTS.put(hash, w);
+            weight += w;
+        }
+        evict(capacity);
+    }
+
+    // drops least recently used commits until the cache fits CAPACITY
+    private static void evict(long capacity) {
+        Iterator<Map.Entry<String, Commit>> it = COMMITS.entrySet().iterator();
+        while (weight > capacity && it.hasNext()) {
+            String hash = it.next().getKey();
+            it.remove();
+            weight -= WEIGHTS.remove(hash);
+        }
+    }
+
+    // core.commitCache, read again only when Config has re-read the file:
+    // this is on the path of every getCommit
+    private static long capacity() {
+        int g = Config.generation();
+        if (g != capacityGeneration) {
+            capacity = Config.getLong("core.commitCache", DEFAULT_CAPACITY);
+            capacityGeneration = g;
+        }
+        return capacity;
+    }
+
+    static synchronized long hits() {
+        return hits;
+    }
+
+    static synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns the number of commits cached. */
+    static synchronized int size() {
+        return COMMITS.size();
+    }
+
+    /** Returns the estimated heap use of the cached commits, in bytes. */
+    static synchronized long weight() {
+        return weight;
+    }
+}
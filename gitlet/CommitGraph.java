@@ -0,0 +1,470 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** The shape of the commit history, kept apart from the commit objects so
+ *  that ancestry questions never deserialize a Commit.
+ *
+ *  Commits are numbered by their position in the file, in the order they
+ *  were added, and every column is a primitive array indexed by that
+ *  number:
+ *      parentA, parentB -- positions of the parents, -1 if none
+ *      generation       -- 1 for a root, else 1 + the largest parent's
+ *      time             -- commit time, in epoch milliseconds
+ *  A commit's generation is always larger than its parents', so walking
+ *  commits by decreasing generation never visits a commit before one of
+ *  its descendants.
+ *
+ *  A lookup table lists the positions in hash order, for binary search by
+ *  hash or prefix.
+ *
+ *  objects/commit-graph layout:
+ *      "CGPH" | version (int) | K (int) | lookup (K ints)
+ *      | records...
+ *      record: hash (20 raw bytes) | parentA (int) | parentB (int)
+ *              | generation (int) | time (long)
+ *  The lookup table covers the first K records. commit appends one record
+ *  to the end of the file and writes nothing else; reading the file sorts
+ *  the records after the first K into the table in memory. Once there are
+ *  more of those than K (and at least MIN_TAIL), or on repack, the file is
+ *  rewritten with every record in the table, so commits cost O(1) writes
+ *  amortized. A record cut short at the end of the file is left out.
+ *
+ *  If the file is missing or does not know a commit (say, one made by an
+ *  older gitlet), it is rebuilt from the commit objects.
+ *
+ *  @author Qiyue Hao
+ */
+class CommitGraph {
+
+    static final File GRAPH_FILE = join(Repository.OBJ_DIR, "commit-graph");
+    static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+    static final int VERSION = 2;
+
+    private static final int RAW = Pack.RAW_LENGTH;
+    private static final int HEADER = MAGIC.length + 4 + 4;
+    private static final int RECORD = RAW + 4 + 4 + 4 + 8;
+    // records past the lookup table the file may have before a rewrite
+    private static final int MIN_TAIL = 1024;
+
+    private final int count;
+    private final byte[] hashes;
+    private final int[] parentA;
+    private final int[] parentB;
+    private final int[] generation;
+    private final long[] time;
+    // positions in hash order
+    private final int[] sorted;
+    // how many records the file's lookup table covers
+    private int indexed;
+
+    // last graph read or written, and GRAPH_FILE's modification time and
+    // length then
+    private static CommitGraph cached;
+    private static long cachedTime = -1;
+    private static long cachedLength = -1;
+
+    private CommitGraph(int count) {
+        this.count = count;
+        hashes = new byte[count * RAW];
+        parentA = new int[count];
+        parentB = new int[count];
+        generation = new int[count];
+        time = new long[count];
+        sorted = new int[count];
+    }
+
+    /** Returns the commit graph, rebuilding it if it is missing or does not
+     *  contain every one of HASHES. */
+    static CommitGraph load(String... hashes) {
+        CommitGraph graph = read();
+        if (graph == null) {
+            return rebuild();
+        }
+        for (String hash : hashes) {
+            if (graph.find(hash) < 0) {
+                return rebuild();
+            }
+        }
+        return graph;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of commit HASH, or -1 if it is not in the graph. */
+    int find(String hash) {
+        if (!ObjectStore.isHash(hash)) {
+            return -1;
+        }
+        byte[] raw = Pack.toRaw(hash);
+        int i = lowerBound(raw);
+        return i < count && compareAt(sorted[i], raw) == 0 ? sorted[i] : -1;
+    }
+
+    /** Returns the full hash of the one commit in the graph whose hash
+     *  starts with hexadecimal PREFIX, or null if there is none. Throws
+     *  GitletException if several commits start with PREFIX. A binary
+     *  search finds the first hash not less than PREFIX, and only hashes
+     *  from there on can match. */
+    String resolve(String prefix) {
+        prefix = prefix.toLowerCase();
+        for (int k = 0; k < prefix.length(); k += 1) {
+            if (Character.digit(prefix.charAt(k), 16) < 0) {
+                return null;
+            }
+        }
+        // PREFIX as raw bytes, padded with zeros: the smallest hash it starts
+        byte[] low = new byte[RAW];
+        for (int k = 0; k < prefix.length() && k < 2 * RAW; k += 1) {
+            low[k / 2] |= Character.digit(prefix.charAt(k), 16) << (k % 2 == 0 ? 4 : 0);
+        }
+        int i = lowerBound(low);
+        if (i >= count || !hashAt(sorted[i]).startsWith(prefix)) {
+            return null;
+        }
+        if (i + 1 < count && hashAt(sorted[i + 1]).startsWith(prefix)) {
+            throw error("Commit id %s is ambiguous.", prefix);
+        }
+        return hashAt(sorted[i]);
+    }
+
+    /** Returns the first index of sorted whose hash is not less than RAW. */
+    private int lowerBound(byte[] raw) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(sorted[mid], raw) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // compares the hash at position I with raw hash RAW
+    private int compareAt(int i, byte[] raw) {
+        for (int k = 0; k < RAW; k += 1) {
+            int c = (hashes[i * RAW + k] & 0xff) - (raw[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    String hashAt(int i) {
+        return Pack.toHex(Arrays.copyOfRange(hashes, i * RAW, (i + 1) * RAW));
+    }
+
+    int parentA(int i) {
+        return parentA[i];
+    }
+
+    int parentB(int i) {
+        return parentB[i];
+    }
+
+    int generation(int i) {
+        return generation[i];
+    }
+
+    long time(int i) {
+        return time[i];
+    }
+
+    /** Returns the position of the latest common ancestor of the commits at
+     *  positions A and B: a common ancestor that is not an ancestor of any
+     *  other common ancestor. Returns -1 if they share no history.
+     *
+     *  Both commits are painted with their own color, and colors flow down
+     *  to parents in order of decreasing generation (then time). When a
+     *  commit is taken off the queue, all of its descendants that can reach
+     *  it have been taken off already, so its colors are final; the first
+     *  one carrying both colors is the answer, and the walk stops there.
+     *  Only commits newer (by generation) than the answer are visited. */
+    int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        final byte fromA = 1;
+        final byte fromB = 2;
+        byte[] color = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            if (generation[x] != generation[y]) {
+                return Integer.compare(generation[y], generation[x]);
+            }
+            return Long.compare(time[y], time[x]);
+        });
+        color[a] = fromA;
+        color[b] = fromB;
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            if (color[c] == (fromA | fromB)) {
+                return c;
+            }
+            for (int p : new int[] {parentA[c], parentB[c]}) {
+                if (p >= 0 && (color[p] | color[c]) != color[p]) {
+                    if (color[p] == 0) {
+                        queue.add(p);
+                    }
+                    color[p] |= color[c];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Records commit HASH, made at TIME with parents PARENTA and PARENTB
+     *  (either may be null), in the commit graph file: appends its record,
+     *  or rewrites the file if the records past its lookup table are too
+     *  many. */
+    static void add(String hash, String parentA, String parentB, long time) {
+        CommitGraph graph = load(nonNull(parentA, parentB));
+        if (graph.find(hash) >= 0) {
+            return;
+        }
+        int a = parentA == null ? -1 : graph.find(parentA);
+        int b = parentB == null ? -1 : graph.find(parentB);
+        int gen = 1 + Math.max(graph.generationOf(a), graph.generationOf(b));
+        if (graph.count - graph.indexed >= Math.max(MIN_TAIL, graph.indexed)) {
+            graph.plus(Pack.toRaw(hash), a, b, gen, time).write();
+            return;
+        }
+        long end = HEADER + 4L * graph.indexed + (long) RECORD * graph.count;
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(Pack.toRaw(hash)).putInt(a).putInt(b).putInt(gen).putLong(time);
+        try (RandomAccessFile file = new RandomAccessFile(GRAPH_FILE, "rw")) {
+            if (file.length() != end) {
+                // a record cut short: appending after it would misalign the rest
+                file.setLength(end);
+            }
+            file.seek(end);
+            file.write(record.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the commit graph file with every record in its lookup
+     *  table, if some are not. */
+    static void compact() {
+        CommitGraph graph = read();
+        if (graph != null && graph.indexed < graph.count) {
+            graph.write();
+        }
+    }
+
+    private static String[] nonNull(String a, String b) {
+        if (a == null) {
+            return new String[0];
+        }
+        return b == null ? new String[] {a} : new String[] {a, b};
+    }
+
+    /** Returns a copy of this graph with one more record, at the end: raw
+     *  hash RAW, parents at positions A and B, generation GEN, and time
+     *  COMMITTIME. */
+    private CommitGraph plus(byte[] raw, int a, int b, int gen, long commitTime) {
+        CommitGraph result = new CommitGraph(count + 1);
+        System.arraycopy(hashes, 0, result.hashes, 0, count * RAW);
+        System.arraycopy(parentA, 0, result.parentA, 0, count);
+        System.arraycopy(parentB, 0, result.parentB, 0, count);
+        System.arraycopy(generation, 0, result.generation, 0, count);
+        System.arraycopy(time, 0, result.time, 0, count);
+        System.arraycopy(raw, 0, result.hashes, count * RAW, RAW);
+        result.parentA[count] = a;
+        result.parentB[count] = b;
+        result.generation[count] = gen;
+        result.time[count] = commitTime;
+        int pos = lowerBound(raw);
+        System.arraycopy(sorted, 0, result.sorted, 0, pos);
+        result.sorted[pos] = count;
+        System.arraycopy(sorted, pos, result.sorted, pos + 1, count - pos);
+        return result;
+    }
+
+    private int generationOf(int i) {
+        return i < 0 ? 0 : generation[i];
+    }
+
+    /** Rebuilds the graph from every commit object and writes it. */
+    static CommitGraph rebuild() {
+        List<String> all = ObjectStore.list(ObjectStore.COMMIT);
+        CommitGraph graph = new CommitGraph(all.size());
+        Map<String, Integer> position = new HashMap<>();
+        for (int i = 0; i < all.size(); i += 1) {
+            System.arraycopy(Pack.toRaw(all.get(i)), 0, graph.hashes, i * RAW, RAW);
+            graph.sorted[i] = i;
+            position.put(all.get(i), i);
+        }
+        for (int i = 0; i < all.size(); i += 1) {
+            Commit c = Repository.getCommit(all.get(i));
+            graph.parentA[i] = c.getParentA() == null ? -1 : position.get(c.getParentA());
+            graph.parentB[i] = c.getParentB() == null ? -1 : position.get(c.getParentB());
+            graph.time[i] = c.getEpochMillis();
+        }
+        // generations, parents first: a commit is finished once both of
+        // its parents are
+        Deque<Integer> fringe = new ArrayDeque<>();
+        for (int i = 0; i < graph.count; i += 1) {
+            fringe.push(i);
+            while (!fringe.isEmpty()) {
+                int c = fringe.peek();
+                if (graph.generation[c] > 0) {
+                    fringe.pop();
+                    continue;
+                }
+                int a = graph.parentA[c];
+                int b = graph.parentB[c];
+                if (a >= 0 && graph.generation[a] == 0) {
+                    fringe.push(a);
+                } else if (b >= 0 && graph.generation[b] == 0) {
+                    fringe.push(b);
+                } else {
+                    graph.generation[c] = 1 + Math.max(graph.generationOf(a), graph.generationOf(b));
+                    fringe.pop();
+                }
+            }
+        }
+        graph.write();
+        return graph;
+    }
+
+    /** Reads GRAPH_FILE, or returns null if there is none. */
+    private static CommitGraph read() {
+        long fileTime = GRAPH_FILE.lastModified();
+        if (fileTime == 0) {
+            return null;
+        }
+        long length = GRAPH_FILE.length();
+        if (cached != null && fileTime == cachedTime && length == cachedLength) {
+            return cached;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(GRAPH_FILE), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                return null;
+            }
+            int indexed = in.readInt();
+            long records = (length - HEADER - 4L * indexed) / RECORD;
+            if (indexed < 0 || records < indexed || records > Integer.MAX_VALUE) {
+                return null;
+            }
+            CommitGraph graph = new CommitGraph((int) records);
+            graph.indexed = indexed;
+            int[] head = new int[indexed];
+            readInts(in, head);
+            for (int i = 0; i < graph.count; i += 1) {
+                in.readFully(graph.hashes, i * RAW, RAW);
+                graph.parentA[i] = in.readInt();
+                graph.parentB[i] = in.readInt();
+                graph.generation[i] = in.readInt();
+                graph.time[i] = in.readLong();
+            }
+            graph.sortTail(head);
+            cached = graph;
+            cachedTime = fileTime;
+            cachedLength = length;
+            return graph;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // fills sorted from HEAD, the file's lookup table of the first indexed
+    // records, and the records after those, sorted here
+    private void sortTail(int[] head) {
+        Integer[] tail = new Integer[count - indexed];
+        for (int i = 0; i < tail.length; i += 1) {
+            tail[i] = indexed + i;
+        }
+        Arrays.sort(tail, this::compareHashes);
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < count; k += 1) {
+            if (j >= tail.length || (i < head.length && compareHashes(head[i], tail[j]) < 0)) {
+                sorted[k] = head[i++];
+            } else {
+                sorted[k] = tail[j++];
+            }
+        }
+    }
+
+    // compares the hashes at positions X and Y
+    private int compareHashes(int x, int y) {
+        for (int k = 0; k < RAW; k += 1) {
+            int c = (hashes[x * RAW + k] & 0xff) - (hashes[y * RAW + k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static void readInts(DataInputStream in, int[] into) throws IOException {
+        for (int i = 0; i < into.length; i += 1) {
+            into[i] = in.readInt();
+        }
+    }
+
+    /** Writes this graph to GRAPH_FILE, replacing it atomically. */
+    private void write() {
+        File tmp = join(Repository.OBJ_DIR, "commit-graph.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int p : sorted) {
+                out.writeInt(p);
+            }
+            for (int i = 0; i < count; i += 1) {
+                out.write(hashes, i * RAW, RAW);
+                out.writeInt(parentA[i]);
+                out.writeInt(parentB[i]);
+                out.writeInt(generation[i]);
+                out.writeLong(time[i]);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), GRAPH_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        indexed = count;
+        cached = this;
+        cachedTime = GRAPH_FILE.lastModified();
+        cachedLength = GRAPH_FILE.length();
+    }
+}
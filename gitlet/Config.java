@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/** Repository settings, read from .gitlet/config in java.util.Properties
+ *  format (one key=value per line). A JVM system property gitlet.KEY
+ *  overrides the file, e.g. java -Dgitlet.core.compression=6 gitlet.Main.
+ *
+ *  Known keys:
+ *      core.compression -- zlib level 1-9 for new objects, 0 (default)
+ *                          to store them uncompressed
+ *      checkout.workers -- files written at once by checkout and reset
+ *                          (default: number of processors); 1 writes
+ *                          them one at a time
+ *      core.commitCache -- bytes of parsed commits kept in memory
+ *                          (default 32 MiB); 0 keeps none
+ *      log.bufferSize   -- characters of log and global-log output
+ *                          written at once (default 65536); 0 writes
+ *                          each entry as it is made
+ *      merge.conflictStyle -- "merge" (default) marks each conflicting
+ *                          region with the current and given lines;
+ *                          "diff3" adds the split point's lines
+ *      diff.algorithm   -- "histogram" (default) or "myers", the line
+ *                          diff the diff command uses
+ *      pack.window      -- blobs repack tries as the delta base of each
+ *                          blob (default 10); 0 stores none as deltas
+ *      pack.depth       -- longest chain of deltas repack makes
+ *                          (default 50)
+ *      core.deltaBaseCache -- bytes of delta bases kept decoded in
+ *                          memory (default 16 MiB)
+ *      core.chunkThreshold -- blobs of at least this many bytes are
+ *                          stored as content-defined chunks (default
+ *                          0: none are)
+ *
+ *  @author Qiyue Hao
+ */
+class Config {
+
+    /** The config file. */
+    static final File CONFIG = join(Repository.GITLET_DIR, "config");
+
+    private static volatile Properties props;
+    // CONFIG's modification time when props was read
+    private static long propsTime = -1;
+    // how many times props has been read
+    private static volatile int generation;
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        String value = System.getProperty("gitlet." + key);
+        if (value == null) {
+            value = load().getProperty(key);
+        }
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /** Returns the value of KEY as an int, or DEFAULTVALUE if it is not set.
+     *  Throws GitletException if the value is not a number. */
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("Bad config value for %s: %s", key, value);
+        }
+    }
+
+    /** Returns the value of KEY as a long, or DEFAULTVALUE if it is not set.
+     *  Throws GitletException if the value is not a number. */
+    static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException excp) {
+            throw error("Bad config value for %s: %s", key, value);
+        }
+    }
+
+    /** Re-reads CONFIG if it changed since it was last read. Main calls
+     *  this once at the start of every command, so that a daemon sees
+     *  edits made between commands; lookups never touch the file. */
+    static synchronized void refresh() {
+        long time = CONFIG.lastModified();
+        if (props != null && time == propsTime) {
+            return;
+        }
+        Properties read = new Properties();
+        if (CONFIG.isFile()) {
+            try (InputStream in = new FileInputStream(CONFIG)) {
+                read.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        propsTime = time;
+        props = read;
+        generation += 1;
+    }
+
+    /** Returns a number that changes whenever the settings are re-read,
+     *  for callers that keep a value derived from them. */
+    static int generation() {
+        if (props == null) {
+            refresh();
+        }
+        return generation;
+    }
+
+    // the settings, read on first use if no command has read them yet
+    private static Properties load() {
+        Properties p = props;
+        if (p == null) {
+            refresh();
+            p = props;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet that serves commands for one repository, so that
+ *  a command costs a socket round trip instead of a JVM start. Classes
+ *  stay loaded and JIT-compiled, and the in-memory caches (commit graph,
+ *  open packs, config) stay warm between commands; each of them checks the
+ *  files it was read from, so changes made by a plain `java gitlet.Main`
+ *  meanwhile are still seen.
+ *
+ *  `gitlet daemon` listens on a free loopback port and writes
+ *      port token
+ *  to .gitlet/daemon, readable by its owner only. A request is a list of
+ *  NUL-terminated UTF-8 fields:
+ *      token | argument count | arguments...
+ *  and the response is exactly what `java gitlet.Main ARGUMENTS` would have
+ *  printed, after which the daemon closes the connection. Commands are
+ *  served one at a time, in the order they arrive. `gitlet daemon stop`
+ *  stops the daemon and `gitlet daemon stats` prints its commit cache
+ *  counters; bin/gitlet is a client that uses the daemon when there
+ *  is one and runs gitlet.Main otherwise.
+ *
+ *  @author Qiyue Hao
+ */
+class Daemon {
+
+    /** The file naming the port and token of the running daemon. */
+    static final File DAEMON_FILE = join(Repository.GITLET_DIR, "daemon");
+
+    // how long a client may take to send its request, in ms
+    private static final int REQUEST_TIMEOUT = 10_000;
+    private static final int MAX_FIELD = 1 << 20;
+    private static final int MAX_ARGS = 1 << 16;
+
+    private static volatile boolean running;
+
+    /** Serves commands until `daemon stop` arrives. */
+    static void serve() throws IOException {
+        if (DAEMON_FILE.exists() && isAlive()) {
+            throw error("A gitlet daemon is already running.");
+        }
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        String token = newToken();
+        publish(server.getLocalPort(), token);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> unpublish(server.getLocalPort())));
+        message("gitlet daemon listening on port %d", server.getLocalPort());
+
+        PrintStream console = System.out;
+        running = true;
+        try {
+            while (running) {
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(REQUEST_TIMEOUT);
+                    handle(client, token, console);
+                } catch (IOException excp) {
+                    // a client that went away or never finished its request
+                }
+            }
+        } finally {
+            server.close();
+            unpublish(server.getLocalPort());
+        }
+    }
+
+    /** Sends `daemon COMMAND` (stop or stats) to the running daemon and
+     *  prints its response. */
+    static void send(String command) throws IOException {
+        String response = request("daemon", command);
+        if (response == null) {
+            throw error("No gitlet daemon is running.");
+        }
+        System.out.print(response);
+    }
+
+    // serves one request from CLIENT, with System.out sent to it
+    private static void handle(Socket client, String token, PrintStream console)
+            throws IOException {
+        InputStream in = new BufferedInputStream(client.getInputStream());
+        String given = readField(in);
+        if (given == null || !MessageDigest.isEqual(
+                given.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            return;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(readField(in));
+        } catch (NumberFormatException excp) {
+            return;
+        }
+        if (count < 0 || count > MAX_ARGS) {
+            return;
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readField(in);
+            if (args[i] == null) {
+                return;
+            }
+        }
+
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(client.getOutputStream(), 1 << 16), false);
+        System.setOut(out);
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+        } catch (IOException | RuntimeException excp) {
+            // a bug or an I/O failure fails the command, not the daemon
+            out.println(excp);
+        } finally {
+            out.flush();
+            System.setOut(console);
+        }
+    }
+
+    private static void run(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                running = false;
+                message("gitlet daemon stopped.");
+                return;
+            }
+            if (args.length == 2 && args[1].equals("stats")) {
+                message("commit cache: %d commits, %d bytes, %d hits, %d misses",
+                        CommitCache.size(), CommitCache.weight(),
+                        CommitCache.hits(), CommitCache.misses());
+                return;
+            }
+            throw error("A gitlet daemon is already running.");
+        }
+        Main.runGitlet(args);
+    }
+
+    /** Sends ARGS to the running daemon and returns its response, or null
+     *  if no daemon answers. */
+    static String request(String... args) throws IOException {
+        if (!DAEMON_FILE.isFile()) {
+            return null;
+        }
+        String[] portAndToken = readContentsAsString(DAEMON_FILE).trim().split(" ");
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(portAndToken[0]))) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            writeField(out, portAndToken[1]);
+            writeField(out, Integer.toString(args.length));
+            for (String arg : args) {
+                writeField(out, arg);
+            }
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                response.write(buf, 0, n);
+            }
+            return response.toString();
+        } catch (IOException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    // true if the daemon named by DAEMON_FILE accepts connections
+    private static boolean isAlive() {
+        try {
+            String port = readContentsAsString(DAEMON_FILE).trim().split(" ")[0];
+            new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(port)).close();
+            return true;
+        } catch (IOException | RuntimeException excp) {
+            return false;
+        }
+    }
+
+    // writes DAEMON_FILE, readable by its owner only where that can be set
+    private static void publish(int port, String token) throws IOException {
+        File tmp = join(Repository.GITLET_DIR, "daemon.lock");
+        tmp.delete();
+        try {
+            Files.createFile(tmp.toPath(), PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException excp) {
+            tmp.createNewFile();
+        }
+        writeContents(tmp, port + " " + token + "\n");
+        Files.move(tmp.toPath(), DAEMON_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // removes DAEMON_FILE, unless another daemon has replaced it since
+    private static void unpublish(int port) {
+        try {
+            if (DAEMON_FILE.isFile()
+                    && readContentsAsString(DAEMON_FILE).startsWith(port + " ")) {
+                DAEMON_FILE.delete();
+            }
+        } catch (IllegalArgumentException excp) {
+            // already gone
+        }
+    }
+
+    private static String newToken() {
+        byte[] raw = new byte[16];
+        new SecureRandom().nextBytes(raw);
+        return ObjectId.toHex(raw);
+    }
+
+    // reads one NUL-terminated field, or returns null at end of input
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != 0) {
+            if (b < 0 || field.size() >= MAX_FIELD) {
+                return null;
+            }
+            field.write(b);
+        }
+        return new String(field.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeField(OutputStream out, String field) throws IOException {
+        out.write(field.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+}
@@ -0,0 +1,215 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas: one version of some contents written as the changes
+ *  from another (the base), for storing successive versions of a file in
+ *  a pack at the cost of what changed.
+ *
+ *  A delta is
+ *      base length (varint) | result length (varint) | ops...
+ *      op 0nnnnnnn (n from 1 to 127): insert the next n bytes
+ *      op 10000000 | offset (varint) | length (varint): copy that many
+ *                                    bytes of the base from offset
+ *  with varints 7 bits a byte, low bits first, high bit set on all but
+ *  the last byte.
+ *
+ *  create finds copies by block matching: every aligned BLOCK bytes of the
+ *  base go into a hash table by a polynomial hash, and a hash of the
+ *  BLOCK bytes at each position of the new contents is rolled forward a
+ *  byte at a time and looked up there. A block that matches is extended
+ *  both ways as far as the bytes agree and becomes one copy. This costs
+ *  O(base + result) time and a table of about one int per BLOCK bytes of
+ *  base.
+ *
+ *  @author Qiyue Hao
+ */
+class Delta {
+
+    // bytes per indexed block of the base, and the shortest copy found
+    private static final int BLOCK = 16;
+    // hash multiplier, and its power BLOCK - 1 to roll the oldest byte out
+    private static final int P = 0x01000193;
+    private static final int P_TOP;
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= P;
+        }
+        P_TOP = p;
+    }
+
+    /** Returns a delta that turns BASE into TARGET, or null if it would
+     *  not be shorter than LIMIT bytes. */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+        int blocks = base.length / BLOCK;
+        int bits = 1;
+        while ((1 << bits) < 2 * blocks) {
+            bits += 1;
+        }
+        int shift = 32 - bits;
+        // start + 1 of the first base block with each hash slot, or 0
+        int[] table = new int[1 << bits];
+        for (int b = 0; b < blocks; b += 1) {
+            int slot = slot(hash(base, b * BLOCK), shift);
+            if (table[slot] == 0) {
+                table[slot] = b * BLOCK + 1;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, target.length / 4 + 16));
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        // target bytes from here on are not written yet
+        int pending = 0;
+        int i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int c = table[slot(h, shift)] - 1;
+            if (c >= 0 && sameBlock(base, c, target, i)) {
+                int s = c;
+                int t = i;
+                while (s > 0 && t > pending && base[s - 1] == target[t - 1]) {
+                    s -= 1;
+                    t -= 1;
+                }
+                int e = c + BLOCK;
+                int f = i + BLOCK;
+                while (e < base.length && f < target.length && base[e] == target[f]) {
+                    e += 1;
+                    f += 1;
+                }
+                insert(out, target, pending, t);
+                out.write(COPY);
+                writeVarint(out, s);
+                writeVarint(out, e - s);
+                if (out.size() >= limit) {
+                    return null;
+                }
+                pending = f;
+                i = f;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * P_TOP) * P + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.size() < limit ? out.toByteArray() : null;
+    }
+
+    /** Returns the contents made by applying the delta DELTA[OFFSET ..]
+     *  to BASE. Throws GitletException if the delta does not fit BASE. */
+    static byte[] apply(byte[] base, byte[] delta, int offset) {
+        int[] pos = {offset};
+        long baseLength = readVarint(delta, pos);
+        long resultLength = readVarint(delta, pos);
+        if (baseLength != base.length || resultLength > Integer.MAX_VALUE) {
+            throw error("Corrupt delta.");
+        }
+        byte[] result = new byte[(int) resultLength];
+        int r = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (op == COPY) {
+                long from = readVarint(delta, pos);
+                long length = readVarint(delta, pos);
+                if (from + length > base.length || r + length > result.length) {
+                    throw error("Corrupt delta.");
+                }
+                System.arraycopy(base, (int) from, result, r, (int) length);
+                r += (int) length;
+            } else if (op > 0 && op <= MAX_INSERT && pos[0] + op <= delta.length
+                    && r + op <= result.length) {
+                System.arraycopy(delta, pos[0], result, r, op);
+                pos[0] += op;
+                r += op;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if (r != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns the length of the contents the delta DELTA[OFFSET ..] makes,
+     *  which only needs the start of the delta. */
+    static long resultLength(byte[] delta, int offset) {
+        int[] pos = {offset};
+        readVarint(delta, pos);
+        return readVarint(delta, pos);
+    }
+
+    // the hash of DATA[FROM .. FROM + BLOCK)
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * P + (data[from + k] & 0xff);
+        }
+        return h;
+    }
+
+    // the table slot of hash H: its top bits, after mixing
+    private static int slot(int h, int shift) {
+        return (h * 0x9e3779b1) >>> shift;
+    }
+
+    private static boolean sameBlock(byte[] a, int i, byte[] b, int j) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // writes DATA[FROM .. TO) as insert ops
+    private static void insert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while (v >= 0x80) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    // reads a varint of DATA at POS[0], moving POS[0] past it
+    private static long readVarint(byte[] data, int[] pos) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= data.length) {
+                break;
+            }
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            v |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+        throw error("Corrupt delta.");
+    }
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The staging area: a mapping of every file name of the next commit to its
+ *  blob hash, like a commit's fileToBlob. Each entry may also carry the
+ *  stat data (size, modification time, inode) the working file had when it
+ *  was hashed, so that an unchanged file is recognized from a stat alone
+ *  instead of being read and hashed again.
+ *
+ *  INDEX layout:
+ *      "GIDX" | version (int) | count (int) | entries...
+ *      entry: name (UTF) | blob hash (20 raw bytes)
+ *             | size (long) | mtime in ns (long) | inode (long)
+ *  An entry whose size is -1 has no stat data. An INDEX written before
+ *  this format (a serialized TreeMap) is still read.
+ *
+ *  @author Qiyue Hao
+ */
+class Index {
+
+    static final byte[] MAGIC = {'G', 'I', 'D', 'X'};
+    static final int VERSION = 1;
+
+    /** The stat data of a working file. */
+    static class Stat {
+        final long size;
+        final long mtime;
+        final long inode;
+
+        Stat(long size, long mtime, long inode) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        boolean sameAs(Stat other) {
+            return other != null && size == other.size
+                    && mtime == other.mtime && inode == other.inode;
+        }
+
+        /** Returns the stat data of FILE, or null if it does not exist. */
+        static Stat of(File file) {
+            Path path = file.toPath();
+            try {
+                if (unixView) {
+                    try {
+                        Map<String, Object> attrs =
+                                Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                        return new Stat((Long) attrs.get("size"),
+                                nanos((FileTime) attrs.get("lastModifiedTime")),
+                                (Long) attrs.get("ino"));
+                    } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                        // no unix view on this platform: size and mtime only
+                        unixView = false;
+                    }
+                }
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return new Stat(attrs.size(), nanos(attrs.lastModifiedTime()), 0);
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        private static long nanos(FileTime time) {
+            return time.to(TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // whether the platform has the "unix" file attribute view (with inodes)
+    private static boolean unixView = true;
+
+    // file name -> blob hash; the keys of stats are a subset of its keys
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+    private final TreeMap<String, Stat> stats = new TreeMap<>();
+    // modification time of INDEX when it was read, in ns
+    private long indexTime = Long.MAX_VALUE;
+
+    /** An index tracking exactly the files of FILETOBLOB, with no stat data. */
+    static Index of(Map<String, String> fileToBlob) {
+        Index index = new Index();
+        index.blobs.putAll(fileToBlob);
+        return index;
+    }
+
+    /** Reads INDEX. An empty INDEX is an empty index. */
+    static Index read() {
+        File file = Repository.INDEX;
+        Index index = new Index();
+        if (file.length() == 0) {
+            return index;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                // an older INDEX: a serialized TreeMap of name -> blob hash
+                @SuppressWarnings("unchecked")
+                TreeMap<String, String> legacy =
+                        (TreeMap<String, String>) readObject(file, TreeMap.class);
+                return of(legacy);
+            }
+            if (in.readInt() != VERSION) {
+                throw error("Unsupported INDEX version.");
+            }
+            int count = in.readInt();
+            byte[] raw = new byte[Pack.RAW_LENGTH];
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                in.readFully(raw);
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                index.blobs.put(name, Pack.toHex(raw));
+                if (size >= 0) {
+                    index.stats.put(name, new Stat(size, mtime, inode));
+                }
+            }
+            index.indexTime = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Writes this index to INDEX, replacing it atomically. */
+    void write() {
+        File file = Repository.INDEX;
+        File tmp = join(Repository.GITLET_DIR, "INDEX.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blobs.size());
+            for (Map.Entry<String, String> e : blobs.entrySet()) {
+                Stat st = stats.get(e.getKey());
+                out.writeUTF(e.getKey());
+                out.write(Pack.toRaw(e.getValue()));
+                out.writeLong(st == null ? -1 : st.size);
+                out.writeLong(st == null ? 0 : st.mtime);
+                out.writeLong(st == null ? 0 : st.inode);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the blob hash staged for NAME, or null. */
+    String get(String name) {
+        return blobs.get(name);
+    }
+
+    boolean containsKey(String name) {
+        return blobs.containsKey(name);
+    }
+
+    Set<String> keySet() {
+        return blobs.keySet();
+    }
+
+    /** Returns the staged mapping of file name -> blob hash. */
+    Map<String, String> blobs() {
+        return blobs;
+    }
+
+    /** Stages BLOBHASH for NAME, with no stat data. */
+    void put(String name, String blobHash) {
+        blobs.put(name, blobHash);
+        stats.remove(name);
+    }
+
+    /** Stages BLOBHASH for NAME, whose working file had stat data STAT
+     *  when it was hashed. */
+    void put(String name, String blobHash, Stat stat) {
+        blobs.put(name, blobHash);
+        if (stat == null) {
+            stats.remove(name);
+        } else {
+            stats.put(name, stat);
+        }
+    }
+
+    void remove(String name) {
+        blobs.remove(name);
+        stats.remove(name);
+    }
+
+    /** True if a working file of NAME with stat data STAT is known to have
+     *  the contents staged for NAME, without reading it. A file modified in
+     *  the same clock tick as INDEX was written is never trusted, since it
+     *  may have changed after it was hashed. */
+    boolean isUnchanged(String name, Stat stat) {
+        Stat cached = stats.get(name);
+        return cached != null && cached.sameAs(stat) && cached.mtime < indexTime;
+    }
+}
@@ -0,0 +1,498 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line diffs of file contents, as bytes.
+ *
+ *  Contents are split into lines (each keeping its '\n'; the last one may
+ *  have none) and every distinct line gets a small int id, shared by all
+ *  the contents split with one Interner, so the diff itself compares ints.
+ *
+ *  MYERS is Myers' O((N + M) D) algorithm in its linear-space form: find
+ *  the middle snake of an optimal edit path by running the greedy search
+ *  forward from the start and backward from the end at once, then recurse
+ *  on the two halves. Lines common to both ends of a range are stripped
+ *  first, so the usual edit to a large file costs about one pass over it.
+ *
+ *  HISTOGRAM (as in git and JGit) splits a range around the longest run
+ *  of matching lines that contains the line occurring least often in the
+ *  old range, so that rare lines (a function header) anchor the diff
+ *  rather than common ones (a closing brace or a blank line), and recurses
+ *  on both sides. A range whose lines all occur too often, or not at all
+ *  in the new contents, is left to Myers. Its hunks read better, though
+ *  they are not always the fewest lines changed.
+ *
+ *  @author Qiyue Hao
+ */
+class LineDiff {
+
+    // only this many bytes are looked at to tell binary contents
+    private static final int BINARY_PROBE = 8000;
+
+    /** How to diff. */
+    enum Algorithm {
+        MYERS, HISTOGRAM;
+
+        /** Returns the algorithm named NAME, case ignored, as set by the
+         *  diff.algorithm key (see Config). Throws GitletException if there
+         *  is no such algorithm. */
+        static Algorithm named(String name) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name().equalsIgnoreCase(name)) {
+                    return algorithm;
+                }
+            }
+            throw Utils.error("Bad config value for diff.algorithm: %s", name);
+        }
+    }
+
+    /** A changed region: lines [aStart, aEnd) of the old contents are
+     *  replaced by lines [bStart, bEnd) of the new. One of the two ranges
+     *  may be empty. */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of some contents. */
+    static class Lines {
+        final byte[] data;
+        // line i is data[starts[i] .. starts[i + 1])
+        final int[] starts;
+        // the id of each line
+        final int[] ids;
+
+        private Lines(byte[] data, int[] starts, int[] ids) {
+            this.data = data;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /** Appends lines [FROM, TO) to OUT. */
+        void writeTo(ByteArrayOutputStream out, int from, int to) {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+
+        /** True if lines [FROM, TO) of this and [OFROM, OFROM + TO - FROM)
+         *  of OTHER are the same lines. */
+        boolean sameLines(int from, int to, Lines other, int oFrom) {
+            for (int i = from; i < to; i += 1) {
+                if (ids[i] != other.ids[oFrom + i - from]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Gives equal lines equal ids, across all the contents it splits. */
+    static class Interner {
+        private final Map<Key, Integer> ids = new HashMap<>();
+
+        /** Returns the lines of DATA. */
+        Lines split(byte[] data) {
+            int count = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            int[] starts = new int[count + 1];
+            int[] lineIds = new int[count];
+            int start = 0;
+            for (int n = 0; n < count; n += 1) {
+                int end = start;
+                while (end < data.length && data[end] != '\n') {
+                    end += 1;
+                }
+                end = Math.min(end + 1, data.length);
+                starts[n] = start;
+                lineIds[n] = id(new Key(data, start, end));
+                start = end;
+            }
+            starts[count] = data.length;
+            return new Lines(data, starts, lineIds);
+        }
+
+        private int id(Key key) {
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    /** A line, for looking up its id. */
+    private static final class Key {
+        final byte[] data;
+        final int start;
+        final int end;
+        final int hash;
+
+        Key(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (hash != other.hash || end - start != other.end - other.start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i += 1) {
+                if (data[start + i] != other.data[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** True if DATA looks binary: it has a NUL byte near the start, as git
+     *  decides. Binary contents are not merged or diffed line by line. */
+    static boolean isBinary(byte[] data) {
+        for (int i = 0; i < Math.min(data.length, BINARY_PROBE); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the changes that turn lines A into lines B (as line ids),
+     *  in order, as few lines changed as possible. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        return diff(a, b, Algorithm.MYERS);
+    }
+
+    /** Returns the changes that turn lines A into lines B (as line ids),
+     *  in order, as found by ALGORITHM. */
+    static List<Hunk> diff(int[] a, int[] b, Algorithm algorithm) {
+        boolean[] changedA = new boolean[a.length];
+        boolean[] changedB = new boolean[b.length];
+        Myers myers = new Myers(a, b, changedA, changedB);
+        if (algorithm == Algorithm.HISTOGRAM) {
+            new Histogram(a, b, myers).run();
+        } else {
+            myers.compare(0, a.length, 0, b.length);
+        }
+        return hunks(changedA, changedB);
+    }
+
+    /** Returns the runs of changed lines of CHANGEDA and CHANGEDB as hunks.
+     *  The unchanged lines of both must pair up in order. */
+    static List<Hunk> hunks(boolean[] changedA, boolean[] changedB) {
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < changedA.length || j < changedB.length) {
+            if (i < changedA.length && j < changedB.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int si = i;
+            int sj = j;
+            while (i < changedA.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < changedB.length && changedB[j]) {
+                j += 1;
+            }
+            if (si == i && sj == j) {
+                throw new IllegalStateException("unchanged lines do not pair up");
+            }
+            hunks.add(new Hunk(si, i, sj, j));
+        }
+        return hunks;
+    }
+
+    /** The histogram search over A and B, marking changes through MYERS,
+     *  which it also hands the ranges it cannot split. */
+    private static final class Histogram {
+        // lines occurring more often than this in a range do not anchor it
+        private static final int MAX_CHAIN = 64;
+
+        private final int[] a;
+        private final int[] b;
+        private final Myers myers;
+        // for each line id, its first position in the range of A being
+        // split (or -1) and its number of occurrences there
+        private final int[] head;
+        private final int[] count;
+        // for each position of A, the next position with the same line
+        private final int[] next;
+
+        Histogram(int[] a, int[] b, Myers myers) {
+            this.a = a;
+            this.b = b;
+            this.myers = myers;
+            int ids = 0;
+            for (int id : a) {
+                ids = Math.max(ids, id + 1);
+            }
+            head = new int[ids];
+            count = new int[ids];
+            next = new int[a.length];
+            Arrays.fill(head, -1);
+        }
+
+        void run() {
+            // ranges still to split, as {aLo, aHi, bLo, bHi}; a stack rather
+            // than recursion, as a range can split off one line at a time
+            ArrayDeque<int[]> ranges = new ArrayDeque<>();
+            ranges.push(new int[] {0, a.length, 0, b.length});
+            while (!ranges.isEmpty()) {
+                int[] r = ranges.pop();
+                split(r[0], r[1], r[2], r[3], ranges);
+            }
+        }
+
+        private void split(int aLo, int aHi, int bLo, int bHi, ArrayDeque<int[]> ranges) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                myers.compare(aLo, aHi, bLo, bHi);
+                return;
+            }
+            for (int i = aHi - 1; i >= aLo; i -= 1) {
+                next[i] = head[a[i]];
+                head[a[i]] = i;
+                count[a[i]] += 1;
+            }
+
+            // the best run so far: [as, ae) of A matching [bs, ...) of B,
+            // the fewest occurrences of any of its lines, then the longest
+            int bestCount = MAX_CHAIN + 1;
+            int as = 0;
+            int ae = 0;
+            int bs = 0;
+            int j = bLo;
+            while (j < bHi) {
+                int id = b[j];
+                int nextJ = j + 1;
+                if (id < count.length && count[id] > 0 && count[id] <= bestCount) {
+                    for (int i = head[id]; i >= 0; i = next[i]) {
+                        int s = i;
+                        int t = j;
+                        while (s > aLo && t > bLo && a[s - 1] == b[t - 1]) {
+                            s -= 1;
+                            t -= 1;
+                        }
+                        int e = i + 1;
+                        int f = j + 1;
+                        while (e < aHi && f < bHi && a[e] == b[f]) {
+                            e += 1;
+                            f += 1;
+                        }
+                        int low = count[id];
+                        for (int k = s; k < e; k += 1) {
+                            low = Math.min(low, count[a[k]]);
+                        }
+                        if (low < bestCount || (low == bestCount && e - s > ae - as)) {
+                            bestCount = low;
+                            as = s;
+                            ae = e;
+                            bs = t;
+                        }
+                        nextJ = Math.max(nextJ, f);
+                    }
+                }
+                j = nextJ;
+            }
+            for (int i = aLo; i < aHi; i += 1) {
+                head[a[i]] = -1;
+                count[a[i]] = 0;
+            }
+
+            if (ae == as) {
+                myers.compare(aLo, aHi, bLo, bHi);
+                return;
+            }
+            ranges.push(new int[] {ae, aHi, bs + ae - as, bHi});
+            ranges.push(new int[] {aLo, as, bLo, bs});
+        }
+    }
+
+    /** The linear-space Myers search over A and B, marking in CHANGEDA and
+     *  CHANGEDB the lines that are not part of the common subsequence. */
+    private static final class Myers {
+        private final int[] a;
+        private final int[] b;
+        private final boolean[] changedA;
+        private final boolean[] changedB;
+
+        Myers(int[] a, int[] b, boolean[] changedA, boolean[] changedB) {
+            this.a = a;
+            this.b = b;
+            this.changedA = changedA;
+            this.changedB = changedB;
+        }
+
+        /** Marks the changes between A[ALO, AHI) and B[BLO, BHI). */
+        void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                mark(changedA, aLo, aHi);
+                mark(changedB, bLo, bHi);
+                return;
+            }
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            boolean atStart = snake[2] == aLo && snake[3] == bLo;
+            boolean atEnd = snake[0] == aHi && snake[1] == bHi;
+            if (atStart || atEnd) {
+                // cannot happen once common ends are stripped; if it did,
+                // recursing would not make progress
+                mark(changedA, aLo, aHi);
+                mark(changedB, bLo, bHi);
+                return;
+            }
+            compare(aLo, snake[0], bLo, snake[1]);
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+
+        /** Returns {x, y, u, v}: the middle snake of an optimal path from
+         *  (ALO, BLO) to (AHI, BHI) runs from (x, y) to (u, v). Diagonal k
+         *  holds the points with x - y == k, relative to (ALO, BLO). */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int off = m;
+            // furthest x reached on each diagonal going forward, or -1;
+            // least x reached going backward, or n + 1
+            int[] fwd = new int[n + m + 1];
+            int[] bwd = new int[n + m + 1];
+            Arrays.fill(fwd, -1);
+            Arrays.fill(bwd, n + 1);
+
+            for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+                for (int k = -d; k <= d; k += 2) {
+                    if (k < -m || k > n) {
+                        continue;
+                    }
+                    int x;
+                    if (d == 0) {
+                        x = 0;
+                    } else {
+                        // down from diagonal k + 1, or right from k - 1
+                        int down = k + 1 <= n ? fwd[k + 1 + off] : -1;
+                        int right = k - 1 >= -m && fwd[k - 1 + off] >= 0 ? fwd[k - 1 + off] + 1 : -1;
+                        x = Math.max(down, right);
+                        if (x > Math.min(n, m + k)) {
+                            x = Math.min(down, right);
+                        }
+                        if (x < 0 || x > Math.min(n, m + k)) {
+                            continue;
+                        }
+                    }
+                    int y = x - k;
+                    int sx = x;
+                    int sy = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    fwd[k + off] = x;
+                    int r = k - delta;
+                    if (odd && r >= -(d - 1) && r <= d - 1 && bwd[k + off] <= n
+                            && x >= bwd[k + off]) {
+                        return new int[] {aLo + sx, bLo + sy, aLo + x, bLo + y};
+                    }
+                }
+                for (int r = -d; r <= d; r += 2) {
+                    int k = r + delta;
+                    if (k < -m || k > n) {
+                        continue;
+                    }
+                    int x;
+                    if (d == 0) {
+                        x = n;
+                    } else {
+                        // left from diagonal k + 1, or up from k - 1
+                        int left = k + 1 <= n && bwd[k + 1 + off] <= n ? bwd[k + 1 + off] - 1 : n + 1;
+                        int up = k - 1 >= -m ? bwd[k - 1 + off] : n + 1;
+                        x = Math.min(left, up);
+                        if (x < Math.max(0, k)) {
+                            x = Math.max(left, up);
+                        }
+                        if (x > n || x < Math.max(0, k)) {
+                            continue;
+                        }
+                    }
+                    int y = x - k;
+                    int ex = x;
+                    int ey = y;
+                    while (x > 0 && y > 0 && a[aLo + x - 1] == b[bLo + y - 1]) {
+                        x -= 1;
+                        y -= 1;
+                    }
+                    bwd[k + off] = x;
+                    if (!odd && k >= -d && k <= d && fwd[k + off] >= 0 && x <= fwd[k + off]) {
+                        return new int[] {aLo + x, bLo + y, aLo + ex, bLo + ey};
+                    }
+                }
+            }
+            throw new IllegalStateException("no middle snake");
+        }
+
+        private static void mark(boolean[] changed, int from, int to) {
+            for (int i = from; i < to; i += 1) {
+                changed[i] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.nio.charset.Charset;
+
+/** Prints log and global-log entries in batches. Entries are formatted
+ *  into one buffer and handed to System.out a batch at a time, so that a
+ *  long log costs one write per log.bufferSize characters (see Config;
+ *  default 65536) rather than several per commit. Output that should show
+ *  up as soon as it is ready can set it lower; 0 writes every entry on
+ *  its own.
+ *
+ *  Once the reader has gone away (e.g. `gitlet global-log | head`), print
+ *  returns false so the caller can stop walking history.
+ *
+ *  @author Qiyue Hao
+ */
+class LogPrinter {
+
+    static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+
+    private static final String NL = System.lineSeparator();
+
+    private final StringBuilder buf = new StringBuilder();
+    private final int bufferSize;
+    // entries still allowed by -n, or -1 for no limit
+    private int remaining;
+    private final long since;
+    private final long until;
+
+    /** A printer of at most MAXCOUNT entries (all of them if negative),
+     *  for commits made from SINCE to UNTIL, in milliseconds since the
+     *  epoch, inclusive. */
+    LogPrinter(int maxCount, long since, long until) {
+        this.bufferSize = Math.max(0, Config.getInt("log.bufferSize", DEFAULT_BUFFER_SIZE));
+        this.remaining = maxCount < 0 ? -1 : maxCount;
+        this.since = since;
+        this.until = until;
+    }
+
+    /** Returns true if a commit made at EPOCHMILLIS is in range. */
+    boolean accepts(long epochMillis) {
+        return epochMillis >= since && epochMillis <= until;
+    }
+
+    /** Returns true if a commit made at EPOCHMILLIS, or any commit made
+     *  before it, could still be printed. */
+    boolean wantsOlder(long epochMillis) {
+        return remaining != 0 && epochMillis >= since;
+    }
+
+    /** Returns true if more entries may be printed. */
+    boolean wantsMore() {
+        return remaining != 0;
+    }
+
+    /** Adds the entry of commit HASH, made at EPOCHMILLIS with MESSAGE.
+     *  MERGEPARENTS are the ids of its parents if it is a merge, else null.
+     *  Returns false if nothing more should be printed: the count given
+     *  to -n has been reached, or the output is gone. */
+    boolean print(String hash, String[] mergeParents, long epochMillis, String message) {
+        buf.append("===").append(NL);
+        buf.append("commit ").append(hash).append(NL);
+        // "Merge: 4975af1 2c1ead1": the first parent is the branch that was
+        // merged into, the second the merged-in branch
+        if (mergeParents != null) {
+            buf.append("Merge: ").append(mergeParents[0], 0, 7)
+                    .append(' ').append(mergeParents[1], 0, 7).append(NL);
+        }
+        buf.append("Date: ").append(Commit.formatTimestamp(epochMillis)).append(NL);
+        buf.append(message).append(NL);
+        buf.append(NL);
+        if (remaining > 0) {
+            remaining -= 1;
+        }
+        if (buf.length() >= bufferSize && !flush()) {
+            remaining = 0;
+        }
+        return remaining != 0;
+    }
+
+    /** Writes out what is buffered. Returns false if the output is gone. */
+    boolean flush() {
+        if (buf.length() > 0) {
+            byte[] bytes = buf.toString().getBytes(Charset.defaultCharset());
+            buf.setLength(0);
+            System.out.write(bytes, 0, bytes.length);
+        }
+        System.out.flush();
+        return !System.out.checkError();
+    }
+}
@@ -2,6 +2,7 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static gitlet.Utils.join;
 import static gitlet.Utils.message;
@@ -16,6 +17,10 @@ public class Main {
             runGitlet(args);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } catch (GitletException e) {
+            // fatal errors: the message is what the user sees
+            message(e.getMessage());
+            System.exit(0);
         }
     }
     /** Usage: java gitlet.Main ARGS, where ARGS contains
@@ -23,14 +28,14 @@ public class Main {
      *  init
      *  add
      */
-    private static void runGitlet(String[] args) throws IOException {
+    static void runGitlet(String[] args) throws IOException {
         // If a user doesn’t input any arguments, print the message
         // Please enter a command.
         // and exit.
         if (args.length == 0) {
-            Utils.message("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
+        Config.refresh();
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
@@ -39,16 +44,18 @@ public class Main {
                 break;
             case "add":
                 validateRepo();
-                validateNumArgs(args, 2);
-                Repository.add(args[1]);
+                // one or more files, or "." for all of them
+                if (args.length < 2) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 validateRepo();
                 // Every commit must have a non-blank message.
                 //  If it doesn’t, print the error message Please enter a commit message.
                 if (args.length == 1 || args[1].trim().isEmpty()) {
-                    Utils.message("Please enter a commit message.");
-                    System.exit(0);
+                    throw Utils.error("Please enter a commit message.");
                 }
                 validateNumArgs(args, 2);
                 Repository.commit(args[1], null);
@@ -59,19 +66,41 @@ public class Main {
                 Repository.rm(args[1]);
                 break;
             case "log":
-                validateRepo();
-                validateNumArgs(args, 1);
-                Repository.log();
-                break;
             case "global-log":
+                // [-n count] [--since date] [--until date], in any order
                 validateRepo();
-                validateNumArgs(args, 1);
-                Repository.global_log();
+                long[] limits = parseLogLimits(args);
+                if (firstArg.equals("log")) {
+                    Repository.log((int) limits[0], limits[1], limits[2]);
+                } else {
+                    Repository.global_log((int) limits[0], limits[1], limits[2]);
+                }
                 break;
             case "find":
                 validateRepo();
-                validateNumArgs(args, 2);
-                Repository.find(args[1]);
+                if (args.length == 2) {
+                    Repository.find(args[1]);
+                } else if (args.length == 3 && args[1].equals("--substring")) {
+                    Repository.findSubstring(args[2]);
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+                    Repository.findRegex(args[2]);
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+            case "diff":
+                // diff: unstaged changes; diff --cached: staged changes;
+                // diff [commit id] [commit id]: changes between two commits
+                validateRepo();
+                if (args.length == 1) {
+                    Repository.diff();
+                } else if (args.length == 2 && args[1].equals("--cached")) {
+                    Repository.diffCached();
+                } else if (args.length == 3) {
+                    Repository.diffCommits(args[1], args[2]);
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
                 break;
             case "status":
                 validateRepo();
@@ -86,8 +115,7 @@ public class Main {
                             Repository.checkoutFileInHeadCmt(args[2]);
                         }
                         else {
-                            Utils.message("Incorrect operands.");
-                            System.exit(0);
+                            throw Utils.error("Incorrect operands.");
                         }
                         break;
                     case 4: // checkout [commit id] -- [file name]
@@ -95,16 +123,14 @@ public class Main {
                             Repository.checkoutFileInCmt(args[1], args[3]);
                         }
                         else {
-                            Utils.message("Incorrect operands.");
-                            System.exit(0);
+                            throw Utils.error("Incorrect operands.");
                         }
                         break;
                     case 2: // checkout [branch name]
                         Repository.checkoutBranch(args[1]);
                         break;
                     default:
-                        Utils.message("Incorrect operands.");
-                        System.exit(0);
+                        throw Utils.error("Incorrect operands.");
                 }
                 break;
             case "branch":
@@ -122,18 +148,34 @@ public class Main {
                 validateNumArgs(args, 2);
                 Repository.reset(args[1]);
                 break;
+            case "repack":
+                validateRepo();
+                validateNumArgs(args, 1);
+                Repository.repack();
+                break;
             case "merge":
                 validateRepo();
                 validateNumArgs(args, 2);
                 Repository.merge(args[1]);
                 break;
 
+            case "daemon":
+                // daemon: serve commands until stopped; daemon stop: stop it;
+                // daemon stats: print its commit cache counters
+                validateRepo();
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && (args[1].equals("stop") || args[1].equals("stats"))) {
+                    Daemon.send(args[1]);
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
             // If a user inputs a command that doesn’t exist, print the message
             // No command with that name exists.
             // and exit.
             default:
-                Utils.message("No command with that name exists.");
-                System.exit(0);
+                throw Utils.error("No command with that name exists.");
         }
     }
 
@@ -148,10 +190,48 @@ public class Main {
      */
     public static void validateNumArgs(String[] args, int n) {
         if (args.length != n) {
-            Utils.message("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Reads the options of log and global-log: -n COUNT, --since DATE and
+     * --until DATE, each at most once. Dates are as Commit.parseDate takes
+     * them; a date alone given to --until means the end of that day.
+     *
+     * @param args Argument array from command line
+     * @return {count (-1 for no limit), since, until}
+     */
+    private static long[] parseLogLimits(String[] args) {
+        long[] limits = {-1, Long.MIN_VALUE, Long.MAX_VALUE};
+        boolean[] seen = new boolean[3];
+        for (int i = 1; i < args.length; i += 2) {
+            int k = Arrays.asList("-n", "--since", "--until").indexOf(args[i]);
+            if (k < 0 || seen[k] || i + 1 >= args.length) {
+                throw Utils.error("Incorrect operands.");
+            }
+            seen[k] = true;
+            String value = args[i + 1];
+            if (k == 0) {
+                try {
+                    limits[0] = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                if (limits[0] < 0) {
+                    throw Utils.error("Incorrect operands.");
+                }
+            } else {
+                Long time = Commit.parseDate(value, k == 2);
+                if (time == null) {
+                    throw Utils.error("Invalid date: %s", value);
+                }
+                limits[k] = time;
+            }
         }
+        return limits;
     }
+
     // If a user inputs a command that requires being in an initialized Gitlet working directory
     // (i.e., one containing a .gitlet subdirectory), but is not in such a directory,
     // print the message
@@ -161,8 +241,7 @@ public class Main {
         File CWD = new File(System.getProperty("user.dir"));
         File GITLET_DIR = join(CWD, ".gitlet");
         if (!GITLET_DIR.exists()) {
-            message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
     }
 }
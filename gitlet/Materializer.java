@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static gitlet.Utils.*;
+
+/** Writes blobs out to working files for checkout and reset, on several
+ *  threads at once.
+ *
+ *  All deletes are done, in order, before the first write starts. Writes
+ *  then fan out over a pool of checkout.workers threads (see Config;
+ *  default: one per processor). On a JVM with virtual threads (JDK 21+)
+ *  every write gets its own virtual thread and a semaphore keeps at most
+ *  checkout.workers of them doing I/O at once; otherwise a fixed pool of
+ *  platform threads is used. A handful of writes, or checkout.workers=1,
+ *  runs on the calling thread.
+ *
+ *  @author Qiyue Hao
+ */
+class Materializer {
+
+    // fewer writes than this are not worth starting threads for
+    private static final int MIN_PARALLEL = 8;
+
+    // working files to delete, in order
+    private final List<String> deletes = new ArrayList<>();
+    // working files to write, and the blob hash of each
+    private final Map<String, String> writes = new TreeMap<>();
+
+    /** Schedules the deletion of working file FILENAME. */
+    void delete(String fileName) {
+        deletes.add(fileName);
+    }
+
+    /** Schedules writing blob BLOBHASH to working file FILENAME. */
+    void write(String fileName, String blobHash) {
+        writes.put(fileName, blobHash);
+    }
+
+    /** Does every scheduled delete, then every scheduled write, and returns
+     *  the stat data of each written file. */
+    Map<String, Index.Stat> run() throws IOException {
+        for (String fileName : deletes) {
+            restrictedDelete(join(Repository.CWD, fileName));
+        }
+        Map<String, Index.Stat> stats = new ConcurrentHashMap<>();
+        int workers = workers();
+        if (workers <= 1 || writes.size() < MIN_PARALLEL) {
+            for (Map.Entry<String, String> e : writes.entrySet()) {
+                writeOne(e.getKey(), e.getValue(), stats);
+            }
+            return stats;
+        }
+
+        Semaphore slots = new Semaphore(workers);
+        ExecutorService pool = newVirtualThreadExecutor();
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Math.min(workers, writes.size()));
+        }
+        List<Future<?>> pending = new ArrayList<>(writes.size());
+        try {
+            for (Map.Entry<String, String> e : writes.entrySet()) {
+                pending.add(pool.submit(() -> {
+                    slots.acquireUninterruptibly();
+                    try {
+                        writeOne(e.getKey(), e.getValue(), stats);
+                    } finally {
+                        slots.release();
+                    }
+                    return null;
+                }));
+            }
+            // wait for every write, then report the first failure
+            Throwable failure = null;
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = excp.getCause();
+                    }
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(excp);
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return stats;
+    }
+
+    // writes one file and records its stat data in STATS
+    private static void writeOne(String fileName, String blobHash,
+                                 Map<String, Index.Stat> stats) throws IOException {
+        File workingFile = join(Repository.CWD, fileName);
+        BlobStore.writeTo(blobHash, workingFile);
+        Index.Stat stat = Index.Stat.of(workingFile);
+        if (stat != null) {
+            stats.put(fileName, stat);
+        }
+    }
+
+    /** Returns the number of files written at once: checkout.workers,
+     *  or the number of processors if it is not set. */
+    static int workers() {
+        int workers = Config.getInt("checkout.workers", Runtime.getRuntime().availableProcessors());
+        return Math.max(1, workers);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() if this JVM has it; this
+    // code is built for Java 8, so it is looked up reflectively
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,824 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The message of every commit, kept apart from the commit objects so that
+ *  find, log and global-log never read a commit.
+ *
+ *  objects/messages is an append-only log, one record per commit:
+ *      "GMSG" | version (int) | records...
+ *      record: commit hash (20 raw bytes) | length (int) | message (UTF-8)
+ *              | length (int)
+ *  commit appends its record, so it costs the same however many commits
+ *  there are. The length is repeated at the end so that the log can be
+ *  read backwards from its end as well.
+ *
+ *  objects/messages.tri is a trigram index of the first COUNT records:
+ *      "GTRI" | version (int) | COUNT (int) | log length covered (long)
+ *      | record offsets (COUNT longs) | trigram count T (int)
+ *      | trigrams (T ints, sorted) | posting starts (T + 1 ints)
+ *      | postings (record numbers, sorted within each trigram)
+ *  A trigram is three consecutive bytes of a UTF-8 message. A message can
+ *  contain a text only if it contains every trigram of the text, so only
+ *  the records in all of their posting lists are read and tested; records
+ *  appended since the index was written are tested one by one, and the
+ *  index is rewritten once there are many of them.
+ *
+ *  objects/messages.idx is a hash table from message to record, for
+ *  find MESSAGE:
+ *      "GMIX" | version (int) | log length covered (long) | records (int)
+ *      | slot count S (int, a power of 2) | S slots
+ *      slot: message hash (long) | record offset (long), 0 if empty
+ *  A record goes in the slot its message's hash picks, or the first empty
+ *  one after it. commit fills one slot, and the table is rewritten twice
+ *  as large once it is half full. A lookup reads the slots from the one
+ *  the hash picks to the first empty one, and the records of those whose
+ *  hash matches: a slot or two and one record per match, however many
+ *  commits there are.
+ *
+ *  The log always has a record for every commit: where it is missing or
+ *  of another version (a repository made by an older gitlet), the next
+ *  command that needs it, or the next commit, rebuilds all three files
+ *  from the commits.
+ *
+ *  log and global-log read messages from here too: global-log streams the
+ *  whole log (scan), and log walks back from HEAD, reading the log
+ *  backwards from its end (reverse), so log -n N reads about as many
+ *  records as it prints.
+ *
+ *  @author Qiyue Hao
+ */
+class MessageIndex {
+
+    static final File MESSAGES = join(Repository.OBJ_DIR, "messages");
+    static final File TRIGRAMS = join(Repository.OBJ_DIR, "messages.tri");
+    static final File EXACT = join(Repository.OBJ_DIR, "messages.idx");
+
+    private static final byte[] LOG_MAGIC = {'G', 'M', 'S', 'G'};
+    private static final byte[] TRI_MAGIC = {'G', 'T', 'R', 'I'};
+    private static final byte[] EXACT_MAGIC = {'G', 'M', 'I', 'X'};
+    private static final int VERSION = 2;
+    private static final int LOG_HEADER = LOG_MAGIC.length + 4;
+    // bytes of a record besides its message
+    private static final int RECORD_OVERHEAD = Pack.RAW_LENGTH + 4 + 4;
+    private static final int EXACT_HEADER = EXACT_MAGIC.length + 4 + 8 + 4 + 4;
+    private static final int SLOT = 16;
+    private static final int MIN_SLOTS = 64;
+
+    // rewrite the trigram index once this many records are not in it
+    private static final int MAX_UNINDEXED = 64;
+
+    // regex escapes of one letter that stand for a class or a position
+    private static final String SIMPLE_ESCAPES = "dDwWsShHvVbBRXNAzZG";
+
+    /** A commit and its message. */
+    private static class Record {
+        final String hash;
+        final String message;
+
+        Record(String hash, String message) {
+            this.hash = hash;
+            this.message = message;
+        }
+    }
+
+    /** The trigram index, as read from TRIGRAMS. */
+    private static class Trigrams {
+        int count;
+        long covered;
+        long[] offsets;
+        int[] keys;
+        int[] starts;
+        int[] postings;
+
+        /** Returns the records that contain every trigram of every one of
+         *  TEXTS, in order, or null if no text is long enough to have one. */
+        int[] candidates(List<String> texts) {
+            int[] result = null;
+            for (String text : texts) {
+                byte[] b = text.getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i + 3 <= b.length; i += 1) {
+                    int k = Arrays.binarySearch(keys, trigram(b, i));
+                    int[] list = k < 0 ? new int[0]
+                            : Arrays.copyOfRange(postings, starts[k], starts[k + 1]);
+                    result = result == null ? list : intersect(result, list);
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Records that commit HASH, which is stored already, has message
+     *  MESSAGE: appends its record to the log and adds it to the table of
+     *  exact messages. */
+    static void append(String hash, String message) {
+        long offset = validLength();
+        if (offset < 0) {
+            // rebuilt from the commits, this one among them
+            rebuild();
+            return;
+        }
+        byte[] b = message.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (offset < MESSAGES.length()) {
+                // a record cut short: appending after it would hide the rest
+                try (RandomAccessFile file = new RandomAccessFile(MESSAGES, "rw")) {
+                    file.setLength(offset);
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(MESSAGES, true)))) {
+                writeRecord(out, hash, message);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        addExact(b, offset, offset + RECORD_OVERHEAD + b.length);
+    }
+
+    /** Returns the ids, in order, of the commits whose message is
+     *  MESSAGE, from the table of exact messages. */
+    static List<String> findExact(String message) {
+        byte[] b = message.getBytes(StandardCharsets.UTF_8);
+        long length = validLength();
+        if (length < 0) {
+            rebuild();
+        } else if (exactCovered() != length) {
+            writeExact();
+        }
+        long h = messageHash(b);
+        TreeSet<String> found = new TreeSet<>();
+        try (RandomAccessFile idx = new RandomAccessFile(EXACT, "r");
+             RandomAccessFile log = new RandomAccessFile(MESSAGES, "r")) {
+            idx.seek(EXACT_HEADER - 4);
+            int mask = idx.readInt() - 1;
+            for (int i = (int) h & mask;; i = (i + 1) & mask) {
+                idx.seek(EXACT_HEADER + (long) SLOT * i);
+                long slotHash = idx.readLong();
+                long offset = idx.readLong();
+                if (offset == 0) {
+                    break;
+                }
+                if (slotHash == h) {
+                    log.seek(offset);
+                    Record r = readRecord(log);
+                    if (r != null && r.message.equals(message)) {
+                        found.add(r.hash);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new ArrayList<>(found);
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT. */
+    static List<String> findSubstring(String text) {
+        return find(m -> m.contains(text), Arrays.asList(text));
+    }
+
+    /** Returns the ids of the commits whose message has a match of
+     *  PATTERN somewhere. */
+    static List<String> findRegex(Pattern pattern) {
+        return find(m -> pattern.matcher(m).find(), literals(pattern));
+    }
+
+    /** Returns the ids, in order, of the commits whose message satisfies
+     *  MATCHES. Every such message contains all of REQUIRED. */
+    private static List<String> find(Predicate<String> matches, List<String> required) {
+        List<Record> unindexed = new ArrayList<>();
+        Trigrams tri = open(unindexed);
+
+        TreeSet<String> found = new TreeSet<>();
+        int[] candidates = tri.candidates(required);
+        if (candidates == null) {
+            // nothing to narrow the search with: test every record
+            readRecords(LOG_HEADER, (hash, message) -> {
+                if (matches.test(message)) {
+                    found.add(hash);
+                }
+                return true;
+            });
+            return new ArrayList<>(found);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(MESSAGES, "r")) {
+            for (int c : candidates) {
+                in.seek(tri.offsets[c]);
+                Record r = readRecord(in);
+                if (matches.test(r.message)) {
+                    found.add(r.hash);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Record r : unindexed) {
+            if (matches.test(r.message)) {
+                found.add(r.hash);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /** Sees one commit and its message; returns false to stop. */
+    interface Visitor {
+        boolean visit(String hash, String message);
+    }
+
+    /** Shows VISITOR every commit and its message, oldest record first,
+     *  until it returns false. The log is read front to back in large
+     *  blocks, so this costs about as much as reading the file. */
+    static void scan(Visitor visitor) {
+        if (validLength() < 0) {
+            rebuild();
+        }
+        readRecords(LOG_HEADER, visitor);
+    }
+
+    /** Returns a reader of messages by commit, for walks that go back in
+     *  history. Unlike find and scan, it does not check that the log has
+     *  every commit, which costs a listing of all of them: a walk only
+     *  asks for the commits it meets, and reads any the log lacks. */
+    static Reverse reverse() {
+        return new Reverse();
+    }
+
+    /** Looks messages up by commit, reading the log backwards from its end
+     *  in blocks of about BLOCK bytes, each record found by the length at
+     *  its end. Records read past on the way are kept, so a walk from the
+     *  newest commits back to the oldest reads the log once, and one that
+     *  stops after N commits reads about N records. */
+    static class Reverse {
+        private static final int BLOCK = 1 << 16;
+
+        // messages read but not asked for yet
+        private final Map<ObjectId, String> seen = new HashMap<>();
+        // the log before this offset is still to be read
+        private long next;
+
+        private Reverse() {
+            next = Math.max(LOG_HEADER, validLength());
+        }
+
+        /** Returns the message of commit HASH, or null if it is not in the
+         *  log. */
+        String message(String hash) {
+            ObjectId id = ObjectId.fromHex(hash);
+            while (!seen.containsKey(id) && next > LOG_HEADER) {
+                readBlock();
+            }
+            return seen.remove(id);
+        }
+
+        // reads the whole records that end in the BLOCK bytes before next,
+        // or the one record that ends at next if it is longer than that
+        private void readBlock() {
+            try (RandomAccessFile file = new RandomAccessFile(MESSAGES, "r")) {
+                long lo = Math.max(LOG_HEADER, next - BLOCK);
+                byte[] block = read(file, lo, next);
+                int end = parse(block);
+                if (end == block.length) {
+                    // a record longer than BLOCK
+                    file.seek(next - 4);
+                    int length = file.readInt();
+                    lo = next - RECORD_OVERHEAD - length;
+                    if (length < 0 || lo < LOG_HEADER) {
+                        throw error("Corrupt message log.");
+                    }
+                    block = read(file, lo, next);
+                    end = parse(block);
+                }
+                next = lo + end;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private static byte[] read(RandomAccessFile file, long from, long to) throws IOException {
+            byte[] block = new byte[(int) (to - from)];
+            file.seek(from);
+            file.readFully(block);
+            return block;
+        }
+
+        // adds the whole records at the end of BLOCK to seen, last first;
+        // returns where the first of them starts in BLOCK
+        private int parse(byte[] block) {
+            ByteBuffer in = ByteBuffer.wrap(block);
+            int end = block.length;
+            while (end >= RECORD_OVERHEAD) {
+                int length = in.getInt(end - 4);
+                int start = end - RECORD_OVERHEAD - length;
+                if (length < 0 || start < 0) {
+                    break;
+                }
+                if (in.getInt(start + Pack.RAW_LENGTH) != length) {
+                    throw error("Corrupt message log.");
+                }
+                seen.putIfAbsent(ObjectId.fromRaw(block, start), new String(block,
+                        start + Pack.RAW_LENGTH + 4, length, StandardCharsets.UTF_8));
+                end = start;
+            }
+            return end;
+        }
+    }
+
+    /** Returns the length of MESSAGES up to the end of its last whole
+     *  record, or -1 if it is missing or is not a log of this version.
+     *  Only a log whose last record was cut short is read from the front
+     *  to find that record. */
+    private static long validLength() {
+        if (!MESSAGES.isFile()) {
+            return -1;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(MESSAGES, "r")) {
+            long length = file.length();
+            if (length < LOG_HEADER) {
+                return -1;
+            }
+            byte[] magic = new byte[LOG_MAGIC.length];
+            file.readFully(magic);
+            if (!Arrays.equals(magic, LOG_MAGIC) || file.readInt() != VERSION) {
+                return -1;
+            }
+            if (length == LOG_HEADER) {
+                return length;
+            }
+            if (length >= LOG_HEADER + RECORD_OVERHEAD) {
+                file.seek(length - 4);
+                long start = length - RECORD_OVERHEAD - file.readInt();
+                if (start >= LOG_HEADER && start <= length - RECORD_OVERHEAD) {
+                    file.seek(start + Pack.RAW_LENGTH);
+                    if (file.readInt() == length - RECORD_OVERHEAD - start) {
+                        return length;
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long end = LOG_HEADER;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(MESSAGES), 1 << 16))) {
+            in.skipBytes(LOG_HEADER);
+            Record r;
+            while ((r = readRecord(in)) != null) {
+                end += RECORD_OVERHEAD + r.message.getBytes(StandardCharsets.UTF_8).length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return end;
+    }
+
+    /** Returns the trigram index, after making sure the log is there and
+     *  the index is not too far behind it. Adds the records the index does
+     *  not cover to UNINDEXED. */
+    private static Trigrams open(List<Record> unindexed) {
+        if (validLength() < 0) {
+            rebuild();
+        }
+        Trigrams tri = readTrigrams();
+        long start = tri == null ? LOG_HEADER : tri.covered;
+        readRecords(start, (hash, message) -> unindexed.add(new Record(hash, message)));
+        if (tri == null || unindexed.size() > MAX_UNINDEXED) {
+            writeTrigrams();
+            unindexed.clear();
+            return readTrigrams();
+        }
+        return tri;
+    }
+
+    /** Adds the record at OFFSET of the log, whose message is B, to the
+     *  table of exact messages, which then covers the log to COVERED.
+     *  Rewrites the table instead if it does not cover the log up to the
+     *  record, or would be more than half full. */
+    private static void addExact(byte[] b, long offset, long covered) {
+        if (!EXACT.isFile()) {
+            writeExact();
+            return;
+        }
+        try (RandomAccessFile idx = new RandomAccessFile(EXACT, "rw")) {
+            byte[] magic = new byte[EXACT_MAGIC.length];
+            idx.readFully(magic);
+            boolean current = Arrays.equals(magic, EXACT_MAGIC) && idx.readInt() == VERSION
+                    && idx.readLong() == offset;
+            int records = idx.readInt();
+            int slots = idx.readInt();
+            if (current && 2 * (records + 1) <= slots) {
+                long h = messageHash(b);
+                int i = (int) h & (slots - 1);
+                while (true) {
+                    idx.seek(EXACT_HEADER + (long) SLOT * i + 8);
+                    if (idx.readLong() == 0) {
+                        break;
+                    }
+                    i = (i + 1) & (slots - 1);
+                }
+                idx.seek(EXACT_HEADER + (long) SLOT * i);
+                idx.writeLong(h);
+                idx.writeLong(offset);
+                // the header last: until it is written, the table is stale
+                // and is rewritten by the next reader
+                idx.seek(EXACT_MAGIC.length + 4);
+                idx.writeLong(covered);
+                idx.writeInt(records + 1);
+                return;
+            }
+        } catch (EOFException excp) {
+            // a short or damaged file: it is rewritten
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeExact();
+    }
+
+    /** Returns the log length the table of exact messages covers, or -1
+     *  if it is missing or of another version. */
+    private static long exactCovered() {
+        if (!EXACT.isFile()) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(EXACT))) {
+            byte[] magic = new byte[EXACT_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, EXACT_MAGIC) || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readLong();
+        } catch (EOFException excp) {
+            return -1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes EXACT for every record of MESSAGES, with at least four slots
+     *  per record. */
+    private static void writeExact() {
+        List<long[]> entries = new ArrayList<>();
+        long covered = LOG_HEADER;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(MESSAGES), 1 << 16))) {
+            in.skipBytes(LOG_HEADER);
+            Record r;
+            while ((r = readRecord(in)) != null) {
+                byte[] b = r.message.getBytes(StandardCharsets.UTF_8);
+                entries.add(new long[] {messageHash(b), covered});
+                covered += RECORD_OVERHEAD + b.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int slots = MIN_SLOTS;
+        while (slots < 4L * entries.size()) {
+            slots *= 2;
+        }
+        long[] table = new long[2 * slots];
+        for (long[] e : entries) {
+            int i = (int) e[0] & (slots - 1);
+            while (table[2 * i + 1] != 0) {
+                i = (i + 1) & (slots - 1);
+            }
+            table[2 * i] = e[0];
+            table[2 * i + 1] = e[1];
+        }
+        File tmp = join(Repository.OBJ_DIR, "messages.idx.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.write(EXACT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(covered);
+            out.writeInt(entries.size());
+            out.writeInt(slots);
+            for (long v : table) {
+                out.writeLong(v);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(tmp, EXACT);
+    }
+
+    // the hash of message B in the table of exact messages
+    private static long messageHash(byte[] b) {
+        return ByteBuffer.wrap(sha1Raw(b)).getLong();
+    }
+
+    /** Rewrites the log and both indexes from the commit objects. */
+    static void rebuild() {
+        File tmp = join(Repository.OBJ_DIR, "messages.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(LOG_MAGIC);
+            out.writeInt(VERSION);
+            for (String hash : ObjectStore.list(ObjectStore.COMMIT)) {
+                writeRecord(out, hash, Repository.getCommit(hash).getMessage());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(tmp, MESSAGES);
+        writeTrigrams();
+        writeExact();
+    }
+
+    /** Writes TRIGRAMS for every record of MESSAGES. */
+    private static void writeTrigrams() {
+        List<Long> offsets = new ArrayList<>();
+        Map<Integer, List<Integer>> lists = new HashMap<>();
+        long covered = LOG_HEADER;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(MESSAGES)))) {
+            in.skipBytes(LOG_HEADER);
+            while (true) {
+                Record r = readRecord(in);
+                if (r == null) {
+                    break;
+                }
+                int n = offsets.size();
+                offsets.add(covered);
+                byte[] b = r.message.getBytes(StandardCharsets.UTF_8);
+                covered += RECORD_OVERHEAD + b.length;
+                for (int i = 0; i + 3 <= b.length; i += 1) {
+                    List<Integer> list = lists.computeIfAbsent(trigram(b, i), k -> new ArrayList<>());
+                    // records are added in order: a repeat is always last
+                    if (list.isEmpty() || list.get(list.size() - 1) != n) {
+                        list.add(n);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        int[] keys = lists.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        File tmp = join(Repository.OBJ_DIR, "messages.tri.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(TRI_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            out.writeLong(covered);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.writeInt(keys.length);
+            for (int key : keys) {
+                out.writeInt(key);
+            }
+            int start = 0;
+            for (int key : keys) {
+                out.writeInt(start);
+                start += lists.get(key).size();
+            }
+            out.writeInt(start);
+            for (int key : keys) {
+                for (int r : lists.get(key)) {
+                    out.writeInt(r);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(tmp, TRIGRAMS);
+    }
+
+    /** Reads TRIGRAMS, or returns null if it is missing or does not
+     *  describe MESSAGES. */
+    private static Trigrams readTrigrams() {
+        if (!TRIGRAMS.isFile()) {
+            return null;
+        }
+        try {
+            // one read, then bulk copies: the file can be megabytes
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(TRIGRAMS.toPath()));
+            byte[] magic = new byte[TRI_MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, TRI_MAGIC) || buf.getInt() != VERSION) {
+                return null;
+            }
+            Trigrams tri = new Trigrams();
+            tri.count = buf.getInt();
+            tri.covered = buf.getLong();
+            if (tri.covered > MESSAGES.length()) {
+                return null;
+            }
+            tri.offsets = new long[tri.count];
+            buf.asLongBuffer().get(tri.offsets);
+            buf.position(buf.position() + 8 * tri.count);
+            tri.keys = readInts(buf, buf.getInt());
+            tri.starts = readInts(buf, tri.keys.length + 1);
+            tri.postings = readInts(buf, tri.starts[tri.keys.length]);
+            return tri;
+        } catch (IOException | RuntimeException excp) {
+            // a short or damaged file: it is rebuilt
+            return null;
+        }
+    }
+
+    /** Shows VISITOR the records of MESSAGES from byte offset START on,
+     *  until it returns false. A record cut short at the end of the log is
+     *  left out. Returns false if MESSAGES is missing or is not a log of
+     *  this version. */
+    private static boolean readRecords(long start, Visitor visitor) {
+        if (!MESSAGES.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(MESSAGES), 1 << 16))) {
+            byte[] magic = new byte[LOG_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, LOG_MAGIC) || in.readInt() != VERSION) {
+                return false;
+            }
+            long skipped = LOG_HEADER;
+            while (skipped < start) {
+                long n = in.skip(start - skipped);
+                if (n <= 0) {
+                    return true;
+                }
+                skipped += n;
+            }
+            while (true) {
+                Record r = readRecord(in);
+                if (r == null || !visitor.visit(r.hash, r.message)) {
+                    return true;
+                }
+            }
+        } catch (EOFException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // the next record of IN, or null at the end of the log
+    private static Record readRecord(DataInput in) throws IOException {
+        byte[] raw = new byte[Pack.RAW_LENGTH];
+        try {
+            in.readFully(raw);
+            byte[] message = new byte[in.readInt()];
+            in.readFully(message);
+            in.readInt();
+            return new Record(Pack.toHex(raw), new String(message, StandardCharsets.UTF_8));
+        } catch (EOFException excp) {
+            return null;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String hash, String message)
+            throws IOException {
+        byte[] b = message.getBytes(StandardCharsets.UTF_8);
+        out.write(Pack.toRaw(hash));
+        out.writeInt(b.length);
+        out.write(b);
+        out.writeInt(b.length);
+    }
+
+    /** Returns literal texts that every match of PATTERN must contain:
+     *  runs of plain characters outside groups and classes, where a
+     *  character made optional or repeatable by a quantifier ends the run.
+     *  Returns no texts for patterns it cannot be sure about. */
+    static List<String> literals(Pattern pattern) {
+        List<String> result = new ArrayList<>();
+        String p = pattern.pattern();
+        if (pattern.flags() != 0 || p.contains("|") || p.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < p.length();) {
+            int c = p.codePointAt(i);
+            i += Character.charCount(c);
+            int literal = -1;
+            if (c == '\\') {
+                if (i >= p.length()) {
+                    return new ArrayList<>();
+                }
+                int next = p.codePointAt(i);
+                i += Character.charCount(next);
+                if (!Character.isLetterOrDigit(next)) {
+                    literal = next;
+                } else if (SIMPLE_ESCAPES.indexOf(next) < 0) {
+                    // \Q, \x41, \p{L}, back references...: not worth parsing
+                    return new ArrayList<>();
+                }
+            } else if (c == '[') {
+                i = skipClass(p, i);
+            } else if (c == '{') {
+                // a repeat count
+                i = p.indexOf('}', i) + 1;
+                if (i == 0) {
+                    return new ArrayList<>();
+                }
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            } else if (".^$?*+{}".indexOf(c) < 0) {
+                literal = c;
+            }
+            if (literal < 0 || depth > 0) {
+                addRun(run, result);
+            } else if (i < p.length() && "?*{".indexOf(p.charAt(i)) >= 0) {
+                // optional: the run ends before it
+                addRun(run, result);
+            } else if (i < p.length() && p.charAt(i) == '+') {
+                // repeatable: the run ends with it
+                run.appendCodePoint(literal);
+                addRun(run, result);
+            } else {
+                run.appendCodePoint(literal);
+            }
+        }
+        addRun(run, result);
+        return result;
+    }
+
+    // the index just past the class whose '[' is before index I of P
+    private static int skipClass(String p, int i) {
+        int depth = 1;
+        while (i < p.length() && depth > 0) {
+            char c = p.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '[') {
+                depth += 1;
+            } else if (c == ']') {
+                depth -= 1;
+            }
+            i += 1;
+        }
+        return i;
+    }
+
+    private static void addRun(StringBuilder run, List<String> into) {
+        if (run.length() >= 3) {
+            into.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    private static int trigram(byte[] b, int i) {
+        return (b[i] & 0xff) << 16 | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] readInts(ByteBuffer buf, int n) {
+        int[] result = new int[n];
+        buf.asIntBuffer().get(result);
+        buf.position(buf.position() + 4 * n);
+        return result;
+    }
+
+    private static void install(File tmp, File target) {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.util.Arrays;
+
+/** The SHA-1 id of an object, held as its 20 raw bytes in three primitive
+ *  fields. Comparing, hashing and keeping one in a map or set costs a few
+ *  word operations and 40 bytes of heap, where a 40-character hex String
+ *  costs a character-by-character comparison and about 100 bytes.
+ *
+ *  The hexadecimal form is made and parsed through lookup tables; toHex and
+ *  toRaw are also the conversions for raw hashes held in plain arrays
+ *  (packs, the commit graph, the index).
+ *
+ *  @author Qiyue Hao
+ */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** Length of an id in bytes. */
+    static final int RAW_LENGTH = 20;
+    /** Length of an id in hexadecimal digits. */
+    static final int HEX_LENGTH = 2 * RAW_LENGTH;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    // the value of each hexadecimal digit character, or -1
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 16; i += 1) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    // bytes 0-7, 8-15 and 16-19, big-endian
+    private final long w1;
+    private final long w2;
+    private final int w3;
+
+    private ObjectId(long w1, long w2, int w3) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /** Returns the id whose raw bytes are RAW[OFFSET .. OFFSET + 20). */
+    static ObjectId fromRaw(byte[] raw, int offset) {
+        return new ObjectId(getBits(raw, offset, 8), getBits(raw, offset + 8, 8),
+                (int) getBits(raw, offset + 16, 4));
+    }
+
+    /** Returns the id whose raw bytes are RAW. */
+    static ObjectId fromRaw(byte[] raw) {
+        return fromRaw(raw, 0);
+    }
+
+    /** Returns the id whose hexadecimal form is HEX. */
+    static ObjectId fromHex(String hex) {
+        return fromRaw(toRaw(hex));
+    }
+
+    /** Returns the 20 raw bytes of this id. */
+    byte[] toRaw() {
+        byte[] raw = new byte[RAW_LENGTH];
+        copyRawTo(raw, 0);
+        return raw;
+    }
+
+    /** Writes the raw bytes of this id into DEST at OFFSET. */
+    void copyRawTo(byte[] dest, int offset) {
+        putBits(dest, offset, 8, w1);
+        putBits(dest, offset + 8, 8, w2);
+        putBits(dest, offset + 16, 4, w3);
+    }
+
+    /** Returns the 40-digit hexadecimal form of this id. */
+    String name() {
+        char[] hex = new char[HEX_LENGTH];
+        putHex(hex, 0, w1, 8);
+        putHex(hex, 16, w2, 8);
+        putHex(hex, 32, w3, 4);
+        return new String(hex);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // SHA-1 bits are already uniform
+        return (int) (w1 >>> 32);
+    }
+
+    /** Orders ids as their raw bytes (and so their hex forms) sort. */
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(w1, other.w1);
+        if (c == 0) {
+            c = Long.compareUnsigned(w2, other.w2);
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(w3, other.w3);
+        }
+        return c;
+    }
+
+    /* HEXADECIMAL CONVERSION */
+
+    /** Returns the lowercase hexadecimal form of RAW. */
+    static String toHex(byte[] raw) {
+        char[] hex = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            hex[2 * i] = DIGITS[(raw[i] >> 4) & 0xf];
+            hex[2 * i + 1] = DIGITS[raw[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /** Returns the 20 raw bytes of the id whose hexadecimal form begins
+     *  HEX. Throws IllegalArgumentException if HEX does not begin with 40
+     *  hexadecimal digits. */
+    static byte[] toRaw(String hex) {
+        if (hex.length() < HEX_LENGTH) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            raw[i] = (byte) (digit(hex, 2 * i) << 4 | digit(hex, 2 * i + 1));
+        }
+        return raw;
+    }
+
+    private static int digit(String hex, int i) {
+        char c = hex.charAt(i);
+        int v = c < VALUES.length ? VALUES[c] : -1;
+        if (v < 0) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return v;
+    }
+
+    // the N bytes of B from OFFSET, big-endian
+    private static long getBits(byte[] b, int offset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i += 1) {
+            v = v << 8 | (b[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    // writes the low N bytes of V into B at OFFSET, big-endian
+    private static void putBits(byte[] b, int offset, int n, long v) {
+        for (int i = n - 1; i >= 0; i -= 1) {
+            b[offset + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    // writes the low N bytes of V as 2N hex digits into HEX at OFFSET
+    private static void putHex(char[] hex, int offset, long v, int n) {
+        for (int i = 2 * n - 1; i >= 0; i -= 1) {
+            hex[offset + i] = DIGITS[(int) (v & 0xf)];
+            v >>>= 4;
+        }
+    }
+}
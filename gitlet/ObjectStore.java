@@ -0,0 +1,853 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** Lookup of commit, tree and blob objects by hash. An object is either
+ *  loose (one file under objects/commits, objects/trees or objects/blobs)
+ *  or packed (an entry of a pack under objects/packs), and either stored
+ *  as is or compressed; callers never need to know which.
+ *
+ *  @author Qiyue Hao
+ */
+class ObjectStore {
+
+    /** Object types, as recorded in pack entries. */
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte TREE = 3;
+    /** A piece of a chunked blob (see ingest). */
+    static final byte CHUNK = 4;
+
+    // packs opened so far, by index file name
+    private static final Map<String, Pack> PACKS = new TreeMap<>();
+
+    /** Returns the directory of loose objects of type TYPE. */
+    static File looseDir(byte type) {
+        switch (type) {
+            case COMMIT:
+                return Repository.CMTS_DIR;
+            case BLOB:
+                return Repository.BLOBS_DIR;
+            case TREE:
+                return Repository.TREES_DIR;
+            case CHUNK:
+                return Repository.CHUNKS_DIR;
+            default:
+                throw new IllegalArgumentException("unknown object type " + type);
+        }
+    }
+
+    /** Returns the loose file of object HASH, which may not exist. */
+    static File looseFile(byte type, String hash) {
+        return join(looseDir(type), hash);
+    }
+
+    /** True if ID is a full hexadecimal SHA-1 hash. */
+    static boolean isHash(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(id.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns all packs of the repository, opening new ones as needed.
+     *  Safe to call from several threads. */
+    static synchronized List<Pack> packs() {
+        List<String> idxFiles = plainFilenamesIn(Repository.PACKS_DIR);
+        List<Pack> result = new ArrayList<>();
+        if (idxFiles == null) {
+            return result;
+        }
+        for (String name : idxFiles) {
+            if (!name.endsWith(".idx")) {
+                continue;
+            }
+            Pack pack = PACKS.get(name);
+            if (pack == null) {
+                pack = Pack.open(join(Repository.PACKS_DIR, name));
+                PACKS.put(name, pack);
+            }
+            result.add(pack);
+        }
+        return result;
+    }
+
+    /** True if object HASH of type TYPE is stored, loose or packed. */
+    static boolean contains(byte type, String hash) {
+        if (!isHash(hash)) {
+            return false;
+        }
+        if (looseFile(type, hash).exists()) {
+            return true;
+        }
+        byte[] raw = Pack.toRaw(hash);
+        for (Pack pack : packs()) {
+            int i = pack.find(raw);
+            if (i >= 0 && pack.typeAt(i) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a stream of the decoded contents of object HASH of type
+     *  TYPE, or null if it is not stored. */
+    static InputStream open(byte type, String hash) {
+        try {
+            File loose = looseFile(type, hash);
+            if (loose.isFile()) {
+                return decode(type, false,
+                        new BufferedInputStream(new FileInputStream(loose), BUFFER_SIZE));
+            }
+            byte[] raw = Pack.toRaw(hash);
+            for (Pack pack : packs()) {
+                int i = pack.find(raw);
+                if (i >= 0 && pack.typeAt(i) == type) {
+                    if (isDelta(pack, i)) {
+                        return new ByteArrayInputStream(readDelta(type, pack, i));
+                    }
+                    return decode(type, true, new BufferedInputStream(pack.openStream(i), BUFFER_SIZE));
+                }
+            }
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a channel over the decoded contents of object HASH of type
+     *  TYPE, or null if it is not stored. A bare loose object is a file
+     *  holding exactly its contents, so that file is opened as is
+     *  (and can be transferred from without a copy through the heap);
+     *  anything else reads through open. */
+    static ReadableByteChannel openChannel(byte type, String hash) {
+        try {
+            File loose = looseFile(type, hash);
+            if (loose.isFile()) {
+                FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ);
+                try {
+                    ByteBuffer head = ByteBuffer.allocate(PEEK_LENGTH);
+                    in.read(head, 0);
+                    if (encodingOf(type, false, head.array(), head.position()) == BARE) {
+                        return in;
+                    }
+                } catch (IOException excp) {
+                    in.close();
+                    throw excp;
+                }
+                in.close();
+            }
+            InputStream in = open(type, hash);
+            return in == null ? null : Channels.newChannel(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the decoded contents of object HASH of type TYPE, or null
+     *  if it is not stored. */
+    static byte[] read(byte type, String hash) {
+        try (InputStream in = open(type, hash)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out);
+            return out.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the decoded contents of object HASH of type TYPE to OUT
+     *  without holding it on the heap. Bare loose objects go through
+     *  FileChannel.transferTo and bare packed ones through a mapped region
+     *  of the pack; anything else is decoded a buffer at a time. Throws IllegalArgumentException if the object is not stored. */
+    static void transferTo(byte type, String hash, WritableByteChannel out) {
+        try {
+            File loose = looseFile(type, hash);
+            if (loose.isFile()) {
+                try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer head = ByteBuffer.allocate(PEEK_LENGTH);
+                    in.read(head, 0);
+                    if (encodingOf(type, false, head.array(), head.position()) == BARE) {
+                        long size = in.size();
+                        long pos = 0;
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                        return;
+                    }
+                }
+            } else {
+                byte[] raw = Pack.toRaw(hash);
+                for (Pack pack : packs()) {
+                    int i = pack.find(raw);
+                    if (i >= 0 && pack.typeAt(i) == type) {
+                        byte[] head = pack.head(i, PEEK_LENGTH);
+                        if (encodingOf(type, true, head, head.length) == BARE) {
+                            pack.transferTo(i, out);
+                            return;
+                        }
+                        break;
+                    }
+                }
+            }
+            try (InputStream in = open(type, hash)) {
+                if (in == null) {
+                    throw new IllegalArgumentException("missing object " + hash);
+                }
+                copy(in, Channels.newOutputStream(out));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores DATA as loose object HASH of type TYPE. */
+    static void writeLoose(byte type, String hash, byte[] data) {
+        writeLoose(type, hash, data, 0, data.length);
+    }
+
+    /** Stores DATA[OFF .. OFF + LEN) as loose object HASH of type TYPE. */
+    static void writeLoose(byte type, String hash, byte[] data, int off, int len) {
+        File tmp = newTempFile();
+        writeEncoded(new ByteArrayInputStream(data, off, len), tmp);
+        install(tmp, type, hash);
+    }
+
+    /** Stores the contents of SOURCE as a loose object of type TYPE and
+     *  returns its hash, unless an object with that hash is already stored.
+     *  SOURCE is read once: it is hashed while it is copied into a temporary
+     *  file under objects/, which is then renamed to its hash. Memory use is
+     *  one buffer, whatever the size of SOURCE.
+     *
+     *  A blob of core.chunkThreshold bytes or more (see Config; 0, the
+     *  default, never) is chunked instead: see ingestChunked. */
+    static String ingest(byte type, File source) {
+        long threshold = Config.getLong("core.chunkThreshold", 0);
+        if (type == BLOB && threshold > 0 && source.length() >= threshold) {
+            return ingestChunked(source);
+        }
+        MessageDigest md = sha1Digest();
+        File tmp = newTempFile();
+        try (InputStream in = new DigestInputStream(new FileInputStream(source), md)) {
+            writeEncoded(in, tmp);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String hash = Pack.toHex(md.digest());
+        if (contains(type, hash)) {
+            tmp.delete();
+        } else {
+            install(tmp, type, hash);
+        }
+        return hash;
+    }
+
+    /** Stores the contents of SOURCE as a chunked blob and returns its
+     *  hash, which is the hash of the contents as for any blob. SOURCE is
+     *  read once, cut into chunks by Chunker while the whole is hashed;
+     *  each chunk is stored as an object of type CHUNK under its own hash
+     *  unless one is stored already, so a chunk shared by two versions of a
+     *  file, or by two files, is stored once. The blob itself is a manifest
+     *  of its chunks, read back as the chunks one after another. */
+    private static String ingestChunked(File source) {
+        MessageDigest whole = newSha1Digest();
+        MessageDigest part = newSha1Digest();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        int count = 0;
+        long total = 0;
+        Repository.CHUNKS_DIR.mkdir();
+        try (InputStream in = new FileInputStream(source)) {
+            Chunker chunker = new Chunker(in);
+            DataOutputStream entries = new DataOutputStream(manifest);
+            int n;
+            while ((n = chunker.next()) > 0) {
+                // hashed and stored straight from the chunker's buffer
+                byte[] buf = chunker.buffer();
+                int off = chunker.offset();
+                whole.update(buf, off, n);
+                part.update(buf, off, n);
+                byte[] raw = part.digest();
+                String hash = Pack.toHex(raw);
+                if (!contains(CHUNK, hash)) {
+                    writeLoose(CHUNK, hash, buf, off, n);
+                }
+                entries.write(raw);
+                entries.writeInt(n);
+                count += 1;
+                total += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String hash = Pack.toHex(whole.digest());
+        if (contains(BLOB, hash)) {
+            return hash;
+        }
+        File tmp = newTempFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.write(CHUNKED);
+            out.write(MANIFEST);
+            out.writeLong(total);
+            out.writeInt(count);
+            manifest.writeTo(out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(tmp, BLOB, hash);
+        return hash;
+    }
+
+    /** Returns the contents of the chunked blob whose manifest, after its
+     *  header, is read from IN, as a stream that opens each chunk when the
+     *  one before it is used up. The manifest is checked whole first: the
+     *  chunk count must fit the length, each chunk must be 1 to
+     *  Chunker.MAX_SIZE bytes, the lengths must add up, and nothing may
+     *  follow; memory grows with the entries read, not with the count the
+     *  manifest claims. Throws GitletException if it is corrupt. */
+    private static InputStream chunks(InputStream in) throws IOException {
+        final byte[] hashes;
+        try (DataInputStream manifest = new DataInputStream(in)) {
+            long total = manifest.readLong();
+            int count = manifest.readInt();
+            if (total < 0 || count < 0 || count > total
+                    || (long) count * Chunker.MAX_SIZE < total) {
+                throw error("Corrupt chunk manifest.");
+            }
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            byte[] hash = new byte[Pack.RAW_LENGTH];
+            long sum = 0;
+            for (int i = 0; i < count; i += 1) {
+                manifest.readFully(hash);
+                int length = manifest.readInt();
+                if (length <= 0 || length > Chunker.MAX_SIZE) {
+                    throw error("Corrupt chunk manifest.");
+                }
+                raw.write(hash, 0, hash.length);
+                sum += length;
+            }
+            if (sum != total || manifest.read() >= 0) {
+                throw error("Corrupt chunk manifest.");
+            }
+            hashes = raw.toByteArray();
+        } catch (EOFException excp) {
+            throw error("Corrupt chunk manifest.");
+        }
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < hashes.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String hash = Pack.toHex(Arrays.copyOfRange(hashes, next, next + Pack.RAW_LENGTH));
+                next += Pack.RAW_LENGTH;
+                InputStream chunk = open(CHUNK, hash);
+                if (chunk == null) {
+                    throw error("Missing chunk %s.", hash);
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /** Returns the hash SOURCE would be stored under, reading it once
+     *  through a fixed buffer and storing nothing. */
+    static String hash(File source) {
+        MessageDigest md = sha1Digest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(source)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Pack.toHex(md.digest());
+    }
+
+    /** Writes everything read from IN to TMP, compressed if
+     *  core.compression asks for it. */
+    private static void writeEncoded(InputStream in, File tmp) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE)) {
+            writeEncoded(in, out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void writeEncoded(InputStream in, OutputStream out) throws IOException {
+        int level = compressionLevel();
+        if (level == 0) {
+            // contents that start like a header are given one, so that bare
+            // contents never do
+            byte[] head = new byte[MAGIC.length];
+            int n = readHead(in, head);
+            if (n == MAGIC.length && Arrays.equals(head, MAGIC)) {
+                out.write(MAGIC);
+                out.write(STORED);
+            }
+            out.write(head, 0, n);
+            copy(in, out);
+            return;
+        }
+        out.write(MAGIC);
+        out.write(DEFLATE);
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream zout = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            copy(in, zout);
+            zout.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns a new empty file in objects/ to build an object in. */
+    private static File newTempFile() {
+        try {
+            return File.createTempFile("tmp-", null, Repository.OBJ_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Atomically renames TMP to loose object HASH of type TYPE, so that
+     *  readers see either no object or all of it. */
+    private static void install(File tmp, byte type, String hash) {
+        try {
+            Files.move(tmp.toPath(), looseFile(type, hash).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* ENCODING */
+
+    // An uncompressed object is stored as its bare contents, exactly as
+    // objects were stored before compression existed. Any other encoding
+    // starts with a header
+    //     0x00 'g' 'l' 'z' | encoding (byte)
+    // followed by the encoded contents. Uncompressed contents that start
+    // with the header's first four bytes are STORED behind a header, so
+    // bare contents never start with them. Text never starts with a NUL
+    // byte and commits start with "GCMT" (or 0xACED, if Java-serialized by
+    // an older version), so old objects are not mistaken for encoded ones
+    // either; a bare blob of an older version that starts like a header
+    // is only taken for one with an encoding its type and place can have
+    // (see encodingOf).
+    //
+    // DELTA is only found in packs, written by repack: the header is
+    // followed by the raw hash of the base, another object of the same
+    // type in the same pack, and a Delta from its contents to these.
+    //
+    // CHUNKED is a blob cut into chunks: the header is followed by "GCNK",
+    // the length of the contents (long), the number of chunks (int), and
+    // the raw hash and length (int) of each CHUNK object, in order. A
+    // header without "GCNK" after it is not taken for a manifest's.
+    private static final byte[] MAGIC = {0, 'g', 'l', 'z'};
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final byte[] MANIFEST = {'G', 'C', 'N', 'K'};
+    // bytes of an object enough to tell its encoding
+    private static final int PEEK_LENGTH = HEADER_LENGTH + MANIFEST.length;
+    /** No header: the object is its contents. */
+    private static final byte BARE = -1;
+    static final byte STORED = 0;
+    static final byte DEFLATE = 1;
+    static final byte DELTA = 2;
+    static final byte CHUNKED = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Returns the encoding named by the first N bytes of HEAD, which are
+     *  the first bytes of a stored object of type TYPE, packed if PACKED.
+     *  Only an encoding such an object can have is taken from a header:
+     *  DELTA only in a pack, CHUNKED only for a blob, and followed by
+     *  MANIFEST. HEAD should hold the first PEEK_LENGTH bytes. */
+    private static byte encodingOf(byte type, boolean packed, byte[] head, int n) {
+        if (n < HEADER_LENGTH) {
+            return BARE;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (head[i] != MAGIC[i]) {
+                return BARE;
+            }
+        }
+        byte encoding = head[MAGIC.length];
+        switch (encoding) {
+            case STORED:
+            case DEFLATE:
+                return encoding;
+            case DELTA:
+                return packed ? encoding : BARE;
+            case CHUNKED:
+                return type == BLOB && n >= PEEK_LENGTH && Arrays.equals(MANIFEST,
+                        Arrays.copyOfRange(head, HEADER_LENGTH, PEEK_LENGTH)) ? encoding : BARE;
+            default:
+                return BARE;
+        }
+    }
+
+    /** Reads from IN until HEAD is full or IN ends, and returns the number
+     *  of bytes read. */
+    private static int readHead(InputStream in, byte[] head) throws IOException {
+        int n = 0;
+        int r;
+        while (n < head.length && (r = in.read(head, n, head.length - n)) > 0) {
+            n += r;
+        }
+        return n;
+    }
+
+    /** Returns a stream of the decoded contents of IN, a stored object of
+     *  type TYPE, packed if PACKED. */
+    private static InputStream decode(byte type, boolean packed, BufferedInputStream in)
+            throws IOException {
+        in.mark(PEEK_LENGTH);
+        byte[] head = new byte[PEEK_LENGTH];
+        int n = readHead(in, head);
+        byte encoding = encodingOf(type, packed, head, n);
+        in.reset();
+        if (encoding != BARE) {
+            readHead(in, new byte[encoding == CHUNKED ? PEEK_LENGTH : HEADER_LENGTH]);
+        }
+        switch (encoding) {
+            case BARE:
+            case STORED:
+                return in;
+            case DEFLATE:
+                return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+            case CHUNKED:
+                return chunks(in);
+            default:
+                in.close();
+                throw error("Unknown object encoding %d", encoding);
+        }
+    }
+
+    /* DELTAS */
+
+    /** Default bytes of delta bases kept decoded in memory. */
+    static final long DEFAULT_BASE_CACHE = 16L << 20;
+    /** Default objects tried as the base of each blob by repack. */
+    static final int DEFAULT_WINDOW = 10;
+    /** Default longest chain of deltas to a stored object. */
+    static final int DEFAULT_DEPTH = 50;
+    // blobs bigger than this are stored whole
+    private static final int MAX_DELTA_SIZE = 16 << 20;
+
+    // recently used delta bases, by hash, least recently used first
+    private static final Map<String, byte[]> BASES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long basesWeight;
+
+    /** True if the I-th object of PACK is stored as a delta. */
+    private static boolean isDelta(Pack pack, int i) {
+        byte[] head = pack.head(i, HEADER_LENGTH);
+        return encodingOf(pack.typeAt(i), true, head, head.length) == DELTA;
+    }
+
+    /** Returns the contents of the I-th object of PACK, of type TYPE,
+     *  stored as a delta. */
+    private static byte[] readDelta(byte type, Pack pack, int i) {
+        byte[] stored = pack.read(i);
+        if (stored.length < HEADER_LENGTH + Pack.RAW_LENGTH) {
+            throw error("Corrupt delta.");
+        }
+        String base = Pack.toHex(Arrays.copyOfRange(stored, HEADER_LENGTH,
+                HEADER_LENGTH + Pack.RAW_LENGTH));
+        return Delta.apply(deltaBase(type, base), stored, HEADER_LENGTH + Pack.RAW_LENGTH);
+    }
+
+    /** Returns the contents of object HASH of type TYPE, a delta base,
+     *  from the cache of bases (core.deltaBaseCache bytes; see Config) if
+     *  it was used lately. The versions of a file are mostly read together,
+     *  and then each is the base of the next. */
+    private static byte[] deltaBase(byte type, String hash) {
+        synchronized (BASES) {
+            byte[] data = BASES.get(hash);
+            if (data != null) {
+                return data;
+            }
+        }
+        byte[] data = read(type, hash);
+        if (data == null) {
+            throw error("Missing delta base %s.", hash);
+        }
+        long capacity = Config.getLong("core.deltaBaseCache", DEFAULT_BASE_CACHE);
+        if (data.length > capacity) {
+            return data;
+        }
+        synchronized (BASES) {
+            if (BASES.put(hash, data) == null) {
+                basesWeight += data.length;
+            }
+            Iterator<byte[]> it = BASES.values().iterator();
+            while (basesWeight > capacity && it.hasNext()) {
+                basesWeight -= it.next().length;
+                it.remove();
+            }
+        }
+        return data;
+    }
+
+    /** Returns BLOBS (entries for repack, one per hash) as they are to be
+     *  packed, with each stored as a delta against another where that is
+     *  at most half its size. Blobs are ordered by file name, from the
+     *  trees, then largest first, so the versions of a file sit together;
+     *  each is tried against the pack.window blobs before it (see Config),
+     *  and chains of deltas are cut at pack.depth. */
+    private static List<Pack.Entry> deltify(List<Pack.Entry> blobs) {
+        int window = Config.getInt("pack.window", DEFAULT_WINDOW);
+        int maxDepth = Config.getInt("pack.depth", DEFAULT_DEPTH);
+        Map<String, String> names = new HashMap<>();
+        for (String tree : list(TREE)) {
+            Tree.fileNames(tree, names);
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        for (Pack.Entry e : blobs) {
+            sizes.put(e.hash, contentLength(e));
+        }
+        List<Pack.Entry> sorted = new ArrayList<>(blobs);
+        sorted.sort(Comparator.comparing((Pack.Entry e) -> names.getOrDefault(e.hash, ""))
+                .thenComparing(e -> -sizes.get(e.hash))
+                .thenComparing(e -> e.hash));
+
+        List<Pack.Entry> result = new ArrayList<>();
+        // the last blobs placed, oldest first: hash, contents, chain depth
+        ArrayDeque<Object[]> recent = new ArrayDeque<>();
+        for (Pack.Entry e : sorted) {
+            byte encoding = encodingOf(e);
+            if (encoding == CHUNKED) {
+                // its chunks are packed on their own
+                result.add(e);
+                continue;
+            }
+            boolean stored = encoding == DELTA;
+            if (window <= 0 || sizes.get(e.hash) > MAX_DELTA_SIZE) {
+                result.add(stored ? whole(e) : e);
+                continue;
+            }
+            byte[] contents = read(BLOB, e.hash);
+            byte[] best = null;
+            Object[] bestBase = null;
+            for (Iterator<Object[]> it = recent.descendingIterator(); it.hasNext();) {
+                Object[] base = it.next();
+                if ((int) base[2] >= maxDepth) {
+                    continue;
+                }
+                int limit = best != null ? best.length : contents.length / 2;
+                byte[] delta = Delta.create((byte[]) base[1], contents, limit);
+                if (delta != null) {
+                    best = delta;
+                    bestBase = base;
+                }
+            }
+            int depth = 0;
+            if (best != null) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream(
+                        HEADER_LENGTH + Pack.RAW_LENGTH + best.length);
+                data.write(MAGIC, 0, MAGIC.length);
+                data.write(DELTA);
+                data.write(Pack.toRaw((String) bestBase[0]), 0, Pack.RAW_LENGTH);
+                data.write(best, 0, best.length);
+                result.add(new Pack.Entry(BLOB, e.hash, data.toByteArray()));
+                depth = (int) bestBase[2] + 1;
+            } else {
+                result.add(stored ? new Pack.Entry(BLOB, e.hash, encode(contents)) : e);
+            }
+            recent.addLast(new Object[] {e.hash, contents, depth});
+            if (recent.size() > window) {
+                recent.removeFirst();
+            }
+        }
+        return result;
+    }
+
+    // the encoding of entry E as it is stored
+    private static byte encodingOf(Pack.Entry e) {
+        if (e.pack != null) {
+            byte[] head = e.pack.head(e.index, PEEK_LENGTH);
+            return encodingOf(e.type, true, head, head.length);
+        }
+        byte[] head = new byte[PEEK_LENGTH];
+        int n;
+        try (InputStream in = new FileInputStream(e.file)) {
+            n = readHead(in, head);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return encodingOf(e.type, false, head, n);
+    }
+
+    // the length of the contents of entry E, or of their stored form if
+    // that is compressed or chunked
+    private static long contentLength(Pack.Entry e) {
+        if (e.pack != null && isDelta(e.pack, e.index)) {
+            // the delta's header: two varints of at most 10 bytes
+            byte[] head = e.pack.head(e.index, HEADER_LENGTH + Pack.RAW_LENGTH + 20);
+            return Delta.resultLength(head, HEADER_LENGTH + Pack.RAW_LENGTH);
+        }
+        return e.length();
+    }
+
+    // entry E, a delta in a pack, as a whole object
+    private static Pack.Entry whole(Pack.Entry e) {
+        return new Pack.Entry(e.type, e.hash, encode(read(e.type, e.hash)));
+    }
+
+    // CONTENTS as a stored object, compressed if core.compression says so
+    private static byte[] encode(byte[] contents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeEncoded(new ByteArrayInputStream(contents), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the configured zlib level for new objects, 0 for none. */
+    private static int compressionLevel() {
+        int level = Config.getInt("core.compression", 0);
+        if (level < 0 || level > 9) {
+            throw error("core.compression must be between 0 and 9.");
+        }
+        return level;
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    /** Returns the hashes of all objects of type TYPE, loose or packed,
+     *  in lexicographic order. */
+    static List<String> list(byte type) {
+        TreeSet<String> hashes = new TreeSet<>(looseHashes(type));
+        for (Pack pack : packs()) {
+            hashes.addAll(pack.hashes(type));
+        }
+        return new ArrayList<>(hashes);
+    }
+
+    // hashes of the loose objects of type TYPE; repositories made before
+    // trees existed have no objects/trees
+    private static List<String> looseHashes(byte type) {
+        List<String> hashes = plainFilenamesIn(looseDir(type));
+        return hashes == null ? new ArrayList<>() : hashes;
+    }
+
+    /** Folds every loose object and every existing pack into one new pack,
+     *  then removes what was folded. Blobs go in as deltas against other
+     *  blobs where that saves space (see deltify). */
+    static void repack() {
+        List<Pack> oldPacks = packs();
+        List<Pack.Entry> entries = new ArrayList<>();
+        // blobs by hash: one entry each, loose before packed
+        Map<String, Pack.Entry> blobs = new LinkedHashMap<>();
+        List<File> loose = new ArrayList<>();
+        for (byte type : new byte[] {COMMIT, TREE, BLOB, CHUNK}) {
+            for (String hash : looseHashes(type)) {
+                File f = looseFile(type, hash);
+                if (type == BLOB) {
+                    blobs.put(hash, new Pack.Entry(type, hash, f));
+                } else {
+                    entries.add(new Pack.Entry(type, hash, f));
+                }
+                loose.add(f);
+            }
+        }
+        if (loose.isEmpty() && oldPacks.size() <= 1) {
+            return;
+        }
+        for (Pack pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                Pack.Entry e = new Pack.Entry(pack, i);
+                if (e.type == BLOB) {
+                    blobs.putIfAbsent(e.hash, e);
+                } else {
+                    entries.add(e);
+                }
+            }
+        }
+        entries.addAll(deltify(new ArrayList<>(blobs.values())));
+        Repository.PACKS_DIR.mkdir();
+        Pack packed = Pack.write(Repository.PACKS_DIR, entries);
+
+        // only now that the new pack is in place is anything removed
+        for (Pack pack : oldPacks) {
+            if (pack.idxFile().equals(packed.idxFile())) {
+                continue;
+            }
+            pack.close();
+            PACKS.remove(pack.idxFile().getName());
+            pack.idxFile().delete();
+            pack.packFile().delete();
+        }
+        for (File f : loose) {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A packfile: many objects appended to one file, plus a sorted offset index.
+ *
+ *  pack-<sha>.pack layout:
+ *      "PACK" | version (int) | count (int) | entries...
+ *      entry: type (byte) | length (long) | data (length bytes)
+ *
+ *  data is the object as ObjectStore stores it: its contents, compressed
+ *  or not, or (for blobs) a delta against another object of the same
+ *  pack. Pack itself never looks inside.
+ *
+ *  pack-<sha>.idx layout:
+ *      "PIDX" | version (int) | count (int) | fanout (256 ints)
+ *      | hashes (count * 20 raw bytes, sorted) | offsets (count longs)
+ *      | types (count bytes)
+ *
+ *  fanout[b] is the number of hashes whose first byte is <= b, so a lookup
+ *  is one binary search inside a single fanout bucket, then a positioned
+ *  read of the entry. Packs are written once and never modified.
+ *
+ *  @author Qiyue Hao
+ */
+class Pack {
+
+    static final byte[] PACK_MAGIC = {'P', 'A', 'C', 'K'};
+    static final byte[] IDX_MAGIC = {'P', 'I', 'D', 'X'};
+    static final int VERSION = 1;
+
+    /** Raw length of a SHA-1 hash. */
+    static final int RAW_LENGTH = 20;
+
+    // idx section offsets
+    private static final int FANOUT_OFFSET = 12;
+    private static final int HASHES_OFFSET = FANOUT_OFFSET + 256 * 4;
+    // pack entry header: type + length
+    private static final int ENTRY_HEADER = 1 + 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // largest region mapped at once; bigger objects are mapped in pieces
+    private static final long MAX_MAPPING = 1L << 30;
+
+    /** Object to put into a new pack, copied either from a loose object
+     *  file or from an existing pack, or given as the bytes to store. */
+    static class Entry {
+        final byte type;
+        final String hash;
+        final File file;
+        final Pack pack;
+        final int index;
+        final byte[] data;
+
+        Entry(byte type, String hash, File file) {
+            this.type = type;
+            this.hash = hash;
+            this.file = file;
+            this.pack = null;
+            this.index = -1;
+            this.data = null;
+        }
+
+        Entry(Pack pack, int index) {
+            this.type = pack.typeAt(index);
+            this.hash = pack.hashAt(index);
+            this.file = null;
+            this.pack = pack;
+            this.index = index;
+            this.data = null;
+        }
+
+        Entry(byte type, String hash, byte[] data) {
+            this.type = type;
+            this.hash = hash;
+            this.file = null;
+            this.pack = null;
+            this.index = -1;
+            this.data = data;
+        }
+
+        long length() {
+            if (data != null) {
+                return data.length;
+            }
+            return file != null ? file.length() : pack.lengthAt(index);
+        }
+    }
+
+    private final File packFile;
+    private final File idxFile;
+    private final int count;
+    private final MappedByteBuffer idx;
+    private FileChannel pack;
+
+    private Pack(File idxFile) throws IOException {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        byte[] magic = new byte[4];
+        idx.get(magic);
+        if (!Arrays.equals(magic, IDX_MAGIC) || idx.getInt(4) != VERSION) {
+            throw error("Corrupt pack index %s", idxFile.getName());
+        }
+        count = idx.getInt(8);
+    }
+
+    /** Opens the pack whose index is IDXFILE. */
+    static Pack open(File idxFile) {
+        try {
+            return new Pack(idxFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    File packFile() {
+        return packFile;
+    }
+
+    File idxFile() {
+        return idxFile;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Returns the position in the index of HASH, or -1 if not in this pack. */
+    int find(byte[] hash) {
+        int first = hash[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT_OFFSET + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    boolean contains(String hash) {
+        return find(toRaw(hash)) >= 0;
+    }
+
+    /** Compares the I-th hash of the index with HASH. */
+    private int compareAt(int i, byte[] hash) {
+        int base = HASHES_OFFSET + i * RAW_LENGTH;
+        for (int k = 0; k < RAW_LENGTH; k += 1) {
+            int c = (idx.get(base + k) & 0xff) - (hash[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    String hashAt(int i) {
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int k = 0; k < RAW_LENGTH; k += 1) {
+            raw[k] = idx.get(HASHES_OFFSET + i * RAW_LENGTH + k);
+        }
+        return toHex(raw);
+    }
+
+    long offsetAt(int i) {
+        return idx.getLong(HASHES_OFFSET + count * RAW_LENGTH + i * 8);
+    }
+
+    byte typeAt(int i) {
+        return idx.get(HASHES_OFFSET + count * (RAW_LENGTH + 8) + i);
+    }
+
+    /** Returns every hash in this pack with object type TYPE. */
+    List<String> hashes(byte type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (typeAt(i) == type) {
+                result.add(hashAt(i));
+            }
+        }
+        return result;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (pack == null) {
+            pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        return pack;
+    }
+
+    /** Reads all of ByteBuffer BUF from the pack starting at POS. */
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                throw error("Truncated pack %s", packFile.getName());
+            }
+            pos += n;
+        }
+        buf.flip();
+    }
+
+    /** Returns the stored length of the I-th object of the index. */
+    long lengthAt(int i) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER);
+            readFully(header, offsetAt(i));
+            header.get();
+            return header.getLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of the I-th object of the index. */
+    byte[] read(int i) {
+        try {
+            ByteBuffer data = ByteBuffer.allocate((int) lengthAt(i));
+            readFully(data, offsetAt(i) + ENTRY_HEADER);
+            return data.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the contents of the I-th object to OUT a buffer at a time. */
+    void copyTo(int i, OutputStream out) throws IOException {
+        long pos = offsetAt(i) + ENTRY_HEADER;
+        long remaining = lengthAt(i);
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (remaining > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(BUFFER_SIZE, remaining));
+            readFully(buf, pos);
+            out.write(buf.array(), 0, buf.limit());
+            pos += buf.limit();
+            remaining -= buf.limit();
+        }
+    }
+
+    /** Returns up to the first N bytes of the I-th object. */
+    byte[] head(int i, int n) {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(n, lengthAt(i)));
+            readFully(buf, offsetAt(i) + ENTRY_HEADER);
+            return buf.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the I-th object, read from the
+     *  pack with positioned reads. */
+    InputStream openStream(int i) {
+        final long start = offsetAt(i) + ENTRY_HEADER;
+        final long end = start + lengthAt(i);
+        return new InputStream() {
+            private long pos = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (pos >= end) {
+                    return -1;
+                }
+                len = (int) Math.min(len, end - pos);
+                int n = channel().read(ByteBuffer.wrap(b, off, len), pos);
+                if (n < 0) {
+                    throw error("Truncated pack %s", packFile.getName());
+                }
+                pos += n;
+                return n;
+            }
+        };
+    }
+
+    /** Writes the contents of the I-th object to OUT straight from a
+     *  memory-mapped region of the pack, without copying it onto the heap. */
+    void transferTo(int i, WritableByteChannel out) throws IOException {
+        long pos = offsetAt(i) + ENTRY_HEADER;
+        long remaining = lengthAt(i);
+        FileChannel ch = channel();
+        while (remaining > 0) {
+            long n = Math.min(remaining, MAX_MAPPING);
+            MappedByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY, pos, n);
+            while (region.hasRemaining()) {
+                out.write(region);
+            }
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /** Returns the contents of object HASH, or null if it is not in this pack. */
+    byte[] read(String hash) {
+        int i = find(toRaw(hash));
+        return i < 0 ? null : read(i);
+    }
+
+    void close() {
+        try {
+            if (pack != null) {
+                pack.close();
+                pack = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes ENTRIES as a new pack + index in directory DIR and returns it.
+     *  ENTRIES need not be sorted; duplicate hashes are written once. */
+    static Pack write(File dir, List<Entry> entries) {
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, (a, b) -> a.hash.compareTo(b.hash));
+        List<Entry> unique = new ArrayList<>();
+        for (Entry e : sorted) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1).hash.equals(e.hash)) {
+                unique.add(e);
+            }
+        }
+        List<Object> names = new ArrayList<>();
+        for (Entry e : unique) {
+            names.add(e.hash);
+        }
+        String packName = "pack-" + sha1(names);
+        File packFile = join(dir, packName + ".pack");
+        File idxFile = join(dir, packName + ".idx");
+        File tmpPack = join(dir, packName + ".pack.tmp");
+        File tmpIdx = join(dir, packName + ".idx.tmp");
+
+        int n = unique.size();
+        long[] offsets = new long[n];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpPack)))) {
+                out.write(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(n);
+                long pos = 12;
+                for (int i = 0; i < n; i += 1) {
+                    Entry e = unique.get(i);
+                    offsets[i] = pos;
+                    long length = e.length();
+                    out.writeByte(e.type);
+                    out.writeLong(length);
+                    if (e.data != null) {
+                        out.write(e.data);
+                    } else if (e.file != null) {
+                        Files.copy(e.file.toPath(), out);
+                    } else {
+                        e.pack.copyTo(e.index, out);
+                    }
+                    pos += ENTRY_HEADER + length;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpIdx)))) {
+                out.write(IDX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(n);
+                int[] fanout = new int[256];
+                for (Entry e : unique) {
+                    fanout[Integer.parseInt(e.hash.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int b = 0; b < 256; b += 1) {
+                    total += fanout[b];
+                    out.writeInt(total);
+                }
+                for (Entry e : unique) {
+                    out.write(toRaw(e.hash));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (Entry e : unique) {
+                    out.writeByte(e.type);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (idxFile.exists()) {
+            // same objects as a pack we already have
+            tmpPack.delete();
+            tmpIdx.delete();
+            return open(idxFile);
+        }
+        // the pack goes in place before its index, so a reader never sees an
+        // index without its pack
+        if (!tmpPack.renameTo(packFile) || !tmpIdx.renameTo(idxFile)) {
+            throw error("Could not write pack %s", packName);
+        }
+        return open(idxFile);
+    }
+
+    /* HASH CONVERSION */
+
+    /** Returns the 20 raw bytes of hexadecimal hash HEX. */
+    static byte[] toRaw(String hex) {
+        return ObjectId.toRaw(hex);
+    }
+
+    /** Returns the hexadecimal form of raw hash RAW. */
+    static String toHex(byte[] raw) {
+        return ObjectId.toHex(raw);
+    }
+}
@@ -1,9 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.time.ZonedDateTime;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 import static gitlet.Utils.writeContents;
@@ -29,10 +36,19 @@ public class Repository {
 //              - master -- file containing this branch's head commit id
 //              - anotherBranch
 //          - objects/ -- folder containing blob and commit files
-//              - commits  -- folder
-//              - blobs -- folder
+//              - commits  -- folder of loose commits
+//              - blobs -- folder of loose blobs
+//              - trees -- folder of loose trees, see Tree
+//              - chunks -- folder of loose chunks of large blobs, see Chunker
+//              - packs -- folder of packfiles, see Pack
+//              - commit-graph -- file of commit ancestry, see CommitGraph
+//              - messages -- log of commit messages, see MessageIndex
+//              - messages.tri -- trigram index of that log
+//              - messages.idx -- hash table of exact messages in that log
 //          - HEAD -- file containing ref to heads folder's branch file "heads/master"
-//          - INDEX -- file of staging area
+//          - INDEX -- file of staging area, see Index
+//          - config -- optional settings file, see Config
+//          - daemon -- port and token of a running daemon, see Daemon
 
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
@@ -42,6 +58,9 @@ public class Repository {
     public static final File OBJ_DIR = join(GITLET_DIR, "objects");
     public static final File CMTS_DIR = join(OBJ_DIR, "commits");
     public static final File BLOBS_DIR = join(OBJ_DIR, "blobs");
+    public static final File TREES_DIR = join(OBJ_DIR, "trees");
+    public static final File CHUNKS_DIR = join(OBJ_DIR, "chunks");
+    public static final File PACKS_DIR = join(OBJ_DIR, "packs");
     // The head file, containing head ref info
     public static final File HEAD = join(GITLET_DIR, "HEAD");
     // The master file, containing master branch info
@@ -66,8 +85,7 @@ public class Repository {
     public static void init() throws IOException {
         // if .gitlet dir already exist then print error msg and exit
         if (GITLET_DIR.exists()) {
-            message("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("A Gitlet version-control system already exists in the current directory.");
         }
         // creates any necessary folders or files
         GITLET_DIR.mkdir();
@@ -75,6 +93,9 @@ public class Repository {
         OBJ_DIR.mkdir();
         CMTS_DIR.mkdir();
         BLOBS_DIR.mkdir();
+        TREES_DIR.mkdir();
+        CHUNKS_DIR.mkdir();
+        PACKS_DIR.mkdir();
         HEAD.createNewFile();
         master.createNewFile();
         INDEX.createNewFile();
@@ -87,20 +108,21 @@ public class Repository {
         Commit initial = Commit.createInitialCommit();
 
         // generate hash for commit object
-        String cmtHash = sha1(serialize(initial));
+        String cmtHash = initial.hash();
 
         // write commit object to file
         writeCmtObj(initial, cmtHash);
+        CommitGraph.add(cmtHash, null, null, initial.getEpochMillis());
+        MessageIndex.append(cmtHash, initial.getMessage());
 
         // index setup
-        TreeMap<String, String> index = new TreeMap<>();
-        writeObject(INDEX, index);
+        new Index().write();
 
         // write the commit hash to head, (which leads to master)
         setHeadTo(cmtHash);
     }
 
-    // java gitlet.Main add [file name]
+    // java gitlet.Main add [file name] [file name]...
     // Adds a copy of the file as it currently exists to the staging area (see the description of the commit command)
     // For this reason, adding a file is also called staging the file for addition
     // Staging an already-staged file overwrites the previous entry in the staging area with the new contents
@@ -113,31 +135,69 @@ public class Repository {
     //Failure cases: If the file does not exist, print the error message
     // File does not exist.
     // and exit without changing anything.
-    public static void add(String fileName) throws IOException {
-
-        // if the file not exist, print error msg and exit
-        List<String> plainFiles = plainFilenamesIn(CWD);
-        assert plainFiles != null;
-        if (!plainFiles.contains(fileName)) {
-            message("File does not exist.");
-            System.exit(0);
+    //
+    // Several files may be given at once, and "." stands for every file in the
+    // working directory (gitlet tracks a flat directory, so "." is the only
+    // directory add accepts). Files are hashed and stored in parallel, and
+    // the index is read and written once for the whole batch.
+    public static void add(String... fileNames) throws IOException {
+
+        // if a file not exist, print error msg and exit, before adding anything
+        List<String> plainFiles = WorkingTree.files();
+        Set<String> present = new HashSet<>(plainFiles);
+        Set<String> toAdd = new TreeSet<>();
+        for (String fileName : fileNames) {
+            if (isWorkingDir(fileName)) {
+                toAdd.addAll(plainFiles);
+            } else if (present.contains(fileName)) {
+                toAdd.add(fileName);
+            } else {
+                throw error("File does not exist.");
+            }
         }
 
         // index: staging area data structure, a mapping of file name and blob references "d12da..."
         // <String, String>
         // Hello.txt - adfdsfsa3241234
         // fool.txt - dk4jkdl34332
-        TreeMap<String, String> index = readIndex();
+        Index index = Index.read();
 
         // Blob: a byte array object containing file content, with its SHA1 as its file name
         // create blob(or not, if it exists), get the blob hash.
-        String blobHash = writeBlobObj(fileName);
+        // if the file's stat data matches the index, it is unchanged since it was
+        // last hashed, and the staged blob is reused without reading the file.
+        // Everything else is hashed and stored in parallel.
+        Map<String, Index.Stat> stats = new ConcurrentHashMap<>();
+        Map<String, String> blobs = new ConcurrentHashMap<>();
+        toAdd.parallelStream().forEach(fileName -> {
+            Index.Stat stat = Index.Stat.of(join(CWD, fileName));
+            if (stat != null) {
+                stats.put(fileName, stat);
+            }
+            if (index.isUnchanged(fileName, stat)) {
+                blobs.put(fileName, index.get(fileName));
+            } else {
+                blobs.put(fileName, writeBlobObj(fileName));
+            }
+        });
 
-        // set the file as the latest version (put will do both add/replace)
-        index.put(fileName, blobHash);
+        // set the files as the latest version (put will do both add/replace)
+        for (String fileName : toAdd) {
+            index.put(fileName, blobs.get(fileName), stats.get(fileName));
+        }
 
-        // write index obj, exit
-        writeObject(INDEX, index);
+        // write index obj once, exit
+        index.write();
+    }
+
+    // true if PATH names the working directory itself, e.g. "."
+    private static boolean isWorkingDir(String path) {
+        File dir = new File(path).isAbsolute() ? new File(path) : join(CWD, path);
+        try {
+            return dir.isDirectory() && dir.getCanonicalFile().equals(CWD.getCanonicalFile());
+        } catch (IOException excp) {
+            return false;
+        }
     }
 
     // java gitlet.Main commit [message]
@@ -156,39 +216,26 @@ public class Repository {
 
     public static void commit(String msg, String mergedHead) throws IOException {
 
-        Commit cmt = getCommit(getHead());
-        TreeMap<String, String> index = readIndex();
+        String headHash = getHead();
+        Commit head = getCommit(headHash);
+        Index index = Index.read();
+
+        // a new commit object on top of head (the head commit itself is left
+        // as read), tracking a safe copy of the index. Only the trees of
+        // directories that changed are new objects.
+        Commit cmt = new Commit(msg, headHash, mergedHead);
+        cmt.setFileToBlob(index.blobs());
 
         // If no files have been staged, abort. (meaning index = fileToAdd?)
         // Print the message No changes added to the commit.
-        if (cmt.fileToBlob.equals(index)) {
-            message("No changes added to the commit.");
-            System.exit(0);
-        }
-
-        // prepare for setting fileToBlob
-        cmt.fileToBlob.clear();
-
-        // read index, iterate it, "copy" index to commit's fileToBlob
-//        for (Map.Entry<String, String> entry : index.entrySet()) {
-//            String fileName = entry.getKey();
-//            String blobHash = entry.getValue();
-//            cmt.fileToBlob.put(fileName, blobHash);
-//        }
-        //safe copy instead of iteration process above.
-        cmt.fileToBlob = new TreeMap<>(index);
-
-        // update the parent ref (add this commit to the commit tree)
-        String cmtHash = getHead();
-        cmt.setParentA(cmtHash);
-        if (mergedHead != null) { // it's a merged commit. called from merge method
-            cmt.setParentB(mergedHead);
-        }
-        // update metadata: message, timestamp
+        // equal snapshots have equal root trees
+        if (cmt.getTree().equals(head.getTree())) {
+            throw error("No changes added to the commit.");
+        }
+        // update metadata: timestamp
         cmt.setTimestamp();
-        cmt.setMessage(msg);
         // generate hash for this commit. no more changes to this cmt object from now
-        cmtHash = sha1(serialize(cmt));
+        String cmtHash = cmt.hash();
 
         // update head pointer
         setHeadTo(cmtHash);
@@ -200,6 +247,10 @@ public class Repository {
 
         // save commit obj, with its SHA1 as its file name.
         writeCmtObj(cmt, cmtHash);
+        CommitCache.put(cmtHash, cmt);
+        // and record it in the commit graph
+        CommitGraph.add(cmtHash, cmt.getParentA(), cmt.getParentB(), cmt.getEpochMillis());
+        MessageIndex.append(cmtHash, msg);
     }
 
     // Unstage the file if it is currently staged for addition.
@@ -211,21 +262,20 @@ public class Repository {
     // No reason to remove the file.
     public static void rm(String fileName) {
 
-        TreeMap<String, String> index = readIndex();
+        Index index = Index.read();
         Commit cmt = getCommit(getHead());
         File fileToRm = join(CWD, fileName);
 
-        if (!cmt.fileToBlob.containsKey(fileName) && !index.containsKey(fileName)) {
-            message("No reason to remove the file.");
-            System.exit(0);
+        if (!cmt.getFileToBlob().containsKey(fileName) && !index.containsKey(fileName)) {
+            throw error("No reason to remove the file.");
         }
 
         // remove it from index
         index.remove(fileName);
-        writeObject(INDEX, index);
+        index.write();
 
         // if the file is tracked in the current commit, rm file in CWD
-        if (cmt.fileToBlob.containsKey(fileName)) {
+        if (cmt.getFileToBlob().containsKey(fileName)) {
             restrictedDelete(fileToRm);
         }
 
@@ -233,69 +283,105 @@ public class Repository {
 
     // following the first parent commit links, ignoring any second parents found in merge commits.
     // (In regular Git, this is what you get with git log --first-parent)
-    public static void log() {
-        String cmtHash = getHead();
-        Commit p = getCommit(cmtHash);
-
-        while (p != null) {
-
-            System.out.println("===");
-            System.out.printf("commit %s%n", cmtHash);
-            // if a merged commit print merge info line
-            // "Merge: 4975af1 2c1ead1"
-            //  The first parent is the branch you were on when you did the merge; the second is that of the merged-in branch.
-
-            if (p.getParentB() != null) {
-                System.out.printf("Merge: %s %s%n",p.getParentA().substring(0,7), p.getParentB().substring(0,7));
+    // the walk itself runs over the commit graph, which also has each commit's
+    // time; messages come from the message log, so no commit is read.
+    // Stops after MAXCOUNT entries (no limit if negative) or at the first
+    // commit older than SINCE; commits newer than UNTIL are skipped.
+    public static void log(int maxCount, long since, long until) {
+        String head = getHead();
+        CommitGraph graph = CommitGraph.load(head);
+        MessageIndex.Reverse messages = MessageIndex.reverse();
+        LogPrinter out = new LogPrinter(maxCount, since, until);
+
+        for (int c = graph.find(head); c >= 0 && out.wantsOlder(graph.time(c)); c = graph.parentA(c)) {
+            if (!out.accepts(graph.time(c))) {
+                continue;
             }
-
-            System.out.printf("Date: %s%n", p.getTimestampString());
-            System.out.println(p.getMessage());
-            System.out.println();
-            cmtHash = p.getParentA();
-            if (cmtHash == null) {
+            String cmtHash = graph.hashAt(c);
+            if (!out.print(cmtHash, mergeParents(graph, c), graph.time(c),
+                    messageOf(messages.message(cmtHash), cmtHash))) {
                 break;
             }
-            p = getCommit(cmtHash);
         }
-
+        out.flush();
     }
 
-    public static void global_log() {
-        List<String> cmtFiles = plainFilenamesIn(CMTS_DIR);
-        for (String cmt: cmtFiles) {
-            Commit p = getCommit(cmt);
-
-            System.out.println("===");
-            System.out.printf("commit %s%n", cmt);
-            // if a merged commit print merge info line
-            // "Merge: 4975af1 2c1ead1"
-            //  The first parent is the branch you were on when you did the merge; the second is that of the merged-in branch.
+    // every commit, in the order they were made; the message log is read
+    // front to back and the commit graph supplies parents and times.
+    // Takes the same limits as log.
+    public static void global_log(int maxCount, long since, long until) {
+        LogPrinter out = new LogPrinter(maxCount, since, until);
+        if (out.wantsMore()) {
+            CommitGraph graph = CommitGraph.load();
+            MessageIndex.scan((cmtHash, msg) -> {
+                int c = graph.find(cmtHash);
+                if (c < 0) {
+                    // not in the graph (made by an older gitlet): read it
+                    return printCommit(out, cmtHash, msg);
+                }
+                if (!out.accepts(graph.time(c))) {
+                    return true;
+                }
+                return out.print(cmtHash, mergeParents(graph, c), graph.time(c), msg);
+            });
+        }
+        out.flush();
+    }
 
-            if (p.getParentB() != null) {
-                System.out.printf("Merge: %s %s%n",p.getParentA().substring(0,7), p.getParentB().substring(0,7));
-            }
+    // prints the log entry of commit CMTHASH, with message MSG, from the
+    // commit itself; returns false once OUT wants no more
+    private static boolean printCommit(LogPrinter out, String cmtHash, String msg) {
+        Commit cmt = getCommit(cmtHash);
+        if (!out.accepts(cmt.getEpochMillis())) {
+            return true;
+        }
+        String[] parents = cmt.getParentB() == null ? null
+                : new String[] {cmt.getParentA(), cmt.getParentB()};
+        return out.print(cmtHash, parents, cmt.getEpochMillis(), msg);
+    }
 
-            System.out.printf("Date: %s%n", p.getTimestampString());
-            System.out.println(p.getMessage());
-            System.out.println();
+    // the ids of the parents of the commit at position C, if it is a merge
+    private static String[] mergeParents(CommitGraph graph, int c) {
+        if (graph.parentB(c) < 0) {
+            return null;
         }
+        return new String[] {graph.hashAt(graph.parentA(c)), graph.hashAt(graph.parentB(c))};
+    }
+
+    // MSG, or the message of commit CMTHASH if MSG is null (not in the log)
+    private static String messageOf(String msg, String cmtHash) {
+        return msg != null ? msg : getCommit(cmtHash).getMessage();
     }
 
+    /** Prints the ids of the commits whose message is MSG. */
     public static void find(String msg) {
-        List<String> cmtFiles = plainFilenamesIn(CMTS_DIR);
-        Commit p = null;
-        boolean found = false;
-        for (String cmt: cmtFiles) {
-            p = getCommit(cmt);
-            if (p.getMessage().equals(msg)) {
-                System.out.println(cmt);
-                found = true;
-            }
+        printFound(MessageIndex.findExact(msg));
+    }
+
+    /** Prints the ids of the commits whose message contains TEXT. */
+    public static void findSubstring(String text) {
+        printFound(MessageIndex.findSubstring(text));
+    }
+
+    /** Prints the ids of the commits whose message has a match of the
+     *  regular expression REGEX. */
+    public static void findRegex(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            throw error("Invalid regular expression: %s", excp.getDescription());
         }
-        if (!found) {
+        printFound(MessageIndex.findRegex(pattern));
+    }
+
+    private static void printFound(List<String> cmtHashes) {
+        if (cmtHashes.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String cmt : cmtHashes) {
+            System.out.println(cmt);
+        }
     }
 
     //    === Branches ===
@@ -309,6 +395,13 @@ public class Repository {
     //    === Removed Files ===
     //    goodbye.txt
     //
+    //    === Modifications Not Staged For Commit ===
+    //    junk.txt (deleted)
+    //    wug3.txt (modified)
+    //
+    //    === Untracked Files ===
+    //    random.stuff
+    //
 
     public static void status() {
         System.out.println("=== Branches ===");
@@ -330,9 +423,9 @@ public class Repository {
 
         System.out.println("=== Staged Files ===");
 
-        TreeMap<String, String> index = readIndex();
+        Index index = Index.read();
         for (String skey : index.keySet()) {
-            if (!headCmt.fileToBlob.containsKey(skey) || !index.get(skey).equals(headCmt.fileToBlob.get(skey))){
+            if (!headCmt.getFileToBlob().containsKey(skey) || !index.get(skey).equals(headCmt.getFileToBlob().get(skey))){
                 System.out.println(skey);
             }
         }
@@ -341,7 +434,7 @@ public class Repository {
 
         System.out.println("=== Removed Files ===");
 
-        for(String skey: headCmt.fileToBlob.keySet()) {
+        for(String skey: headCmt.getFileToBlob().keySet()) {
             if (!index.containsKey(skey)){
                 System.out.println(skey);
             }
@@ -349,10 +442,104 @@ public class Repository {
 
         System.out.println();
 
+        // compare the working directory with the index, hashing only the files
+        // whose stat data changed
+        WorkingTree.Changes changes = WorkingTree.scan(index);
+
         System.out.println("=== Modifications Not Staged For Commit ===");
+        // modified and deleted files, in one lexicographic list
+        TreeMap<String, String> notStaged = new TreeMap<>();
+        for (String file : changes.modified) {
+            notStaged.put(file, file + " (modified)");
+        }
+        for (String file : changes.deleted) {
+            notStaged.put(file, file + " (deleted)");
+        }
+        for (String line : notStaged.values()) {
+            System.out.println(line);
+        }
+
         System.out.println();
+
         System.out.println("=== Untracked Files ===");
+        for (String file : changes.untracked) {
+            System.out.println(file);
+        }
         System.out.println();
+
+        // files found unchanged by hashing get fresh stat data, so the next
+        // status recognizes them from a stat alone
+        if (!changes.refreshed.isEmpty()) {
+            for (Map.Entry<String, Index.Stat> e : changes.refreshed.entrySet()) {
+                index.put(e.getKey(), index.get(e.getKey()), e.getValue());
+            }
+            index.write();
+        }
+    }
+
+    /**
+     * Prints, as a unified diff, the changes to tracked working files that
+     * are not staged: each file whose contents differ from the index, and
+     * each deleted one. Files whose stat data still matches the index are
+     * not read.
+     */
+    public static void diff() throws IOException {
+        Index index = Index.read();
+        WorkingTree.Changes changes = WorkingTree.scan(index);
+        TreeSet<String> files = new TreeSet<>(changes.modified);
+        files.addAll(changes.deleted);
+        BufferedOutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        UnifiedDiff diff = new UnifiedDiff(out);
+        for (String file : files) {
+            byte[] working = changes.deleted.contains(file) ? null : readContents(join(CWD, file));
+            diff.file(file, BlobStore.read(index.get(file)), working);
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints, as a unified diff, the changes staged for the next commit:
+     * the index against the head commit.
+     */
+    public static void diffCached() throws IOException {
+        Map<String, String> head = getCommit(getHead()).getFileToBlob();
+        Map<String, String> staged = Index.read().blobs();
+        TreeSet<String> files = new TreeSet<>(head.keySet());
+        files.addAll(staged.keySet());
+        BufferedOutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        UnifiedDiff diff = new UnifiedDiff(out);
+        for (String file : files) {
+            diffBlobs(diff, file, head.get(file), staged.get(file));
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints, as a unified diff, the changes from commit ID1 to commit ID2.
+     * Either id may be abbreviated as for checkout. Only the files whose
+     * blobs differ are read, and directories whose trees are the same in
+     * both commits are skipped whole.
+     */
+    public static void diffCommits(String id1, String id2) throws IOException {
+        Commit from = getCommit(resolveCommitId(id1));
+        Commit to = getCommit(resolveCommitId(id2));
+        BufferedOutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        UnifiedDiff diff = new UnifiedDiff(out);
+        for (Map.Entry<String, String[]> e : Tree.changes(from.getTree(), to.getTree()).entrySet()) {
+            diffBlobs(diff, e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+        out.flush();
+    }
+
+    // diffs FILE from blob HASH1 to blob HASH2, either null for no file;
+    // equal hashes are equal contents, so those are not read
+    private static void diffBlobs(UnifiedDiff diff, String file, String hash1, String hash2)
+            throws IOException {
+        if (Objects.equals(hash1, hash2)) {
+            return;
+        }
+        diff.file(file, hash1 == null ? null : BlobStore.read(hash1),
+                hash2 == null ? null : BlobStore.read(hash2));
     }
 
     // Takes the version of the file as it exists in the head commit and puts it in the working directory,
@@ -367,15 +554,10 @@ public class Repository {
 
 
     public static void checkoutFileInCmt(String cmtID, String fileName) throws IOException {
-        File cmtFile = join(CMTS_DIR, cmtID);
-        if (!cmtFile.exists()) {
-            message("No commit with that id exists.");
-            System.exit(0);
-        }
+        cmtID = resolveCommitId(cmtID);
         Commit cmt = getCommit(cmtID);
-        if (!cmt.fileToBlob.containsKey(fileName)) {
-            message("File does not exist in that commit.");
-            System.exit(0);
+        if (!cmt.getFileToBlob().containsKey(fileName)) {
+            throw error("File does not exist in that commit.");
         }
         writeCmtFileToCWD(cmt, fileName);
     }
@@ -394,14 +576,12 @@ public class Repository {
         File targetBranchFile = join(HEADS_DIR, targetBranch);
         // If no branch with that name exists
         if (!targetBranchFile.exists()) {
-            message("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
         // If that branch is the current branch
         String curBranch = readContentsAsString(HEAD).substring(6);
         if (targetBranch.equals(curBranch)) {
-            message("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
         // get the head commit of both branches
         Commit targetBranchCmt = getCommit(readContentsAsString(targetBranchFile));
@@ -413,33 +593,7 @@ public class Repository {
         //| yes          | no                     | yes                   | **error: untracked file in the way**                            |
         //| yes          | yes                    | yes/no                | checkout overwrites with target’s version (you lose WD changes) |
         //| no           | no                     | yes                   | checkout create that file |
-
-        // this failure case occurs when in above yes/no/yes situation
-        List<String> workingDirFilesList = plainFilenamesIn(CWD);
-        for (String fileName: workingDirFilesList) {
-            if (!curBranchCmt.fileToBlob.containsKey(fileName) && targetBranchCmt.fileToBlob.containsKey(fileName)) {
-                message("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
-
-        // iterate cur branch cmt files, to potential delete, yes /yes /no
-        for (String fileName: curBranchCmt.fileToBlob.keySet()) {
-            if (workingDirFilesList.contains(fileName) && !targetBranchCmt.fileToBlob.containsKey(fileName)) {
-                File fileToBeDel = join(CWD, fileName);
-                restrictedDelete(fileToBeDel);
-            }
-        }
-
-        // iterate target branch cmt files, to overwrite and create,
-        for (String fileName: targetBranchCmt.fileToBlob.keySet()) {
-            writeCmtFileToCWD(targetBranchCmt, fileName);
-        }
-
-        // clear staging area/index, this means set the index to target branch head commit mapping
-        // this is safe copy
-        TreeMap<String, String> index = new TreeMap<>(targetBranchCmt.fileToBlob);
-        writeObject(INDEX, index);
+        checkoutCommit(curBranchCmt, targetBranchCmt);
 
         // set target branch as current branch "heads/branchName"
         String headRef = "heads" + File.separator + targetBranch;
@@ -451,8 +605,7 @@ public class Repository {
 
         File branchFile = join(HEADS_DIR, branchName);
         if (branchFile.exists()) {
-            message("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
         branchFile.createNewFile();
         writeContents(branchFile, getHead());
@@ -461,13 +614,11 @@ public class Repository {
     public static void rmBranch(String branchName) {
         File branchFile = join(HEADS_DIR, branchName);
         if (!branchFile.exists()) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         String curBranch = readContentsAsString(HEAD).substring(6);
         if (branchName.equals(curBranch)) {
-            message("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
         branchFile.delete();
@@ -485,48 +636,28 @@ public class Repository {
     // There is an untracked file in the way; delete it, or add and commit it first.
 
     public static void reset(String cmtID) throws IOException {
-        File cmtFile = join(CMTS_DIR, cmtID);
-        if (!cmtFile.exists()) {
-            message("No commit with that id exists.");
-            System.exit(0);
-        }
+        cmtID = resolveCommitId(cmtID);
 
         Commit curHeadCmt = getCommit(getHead());
         Commit targetCmt = getCommit(cmtID);
 
-        // below is very similar code to checkout branch
-        List<String> workingDirFilesList = plainFilenamesIn(CWD);
-        for (String fileName: workingDirFilesList) {
-            if (!curHeadCmt.fileToBlob.containsKey(fileName) && targetCmt.fileToBlob.containsKey(fileName)) {
-                message("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-        }
-
-        // iterate cur cmt files, to potential delete, yes /yes /no
-        for (String fileName: curHeadCmt.fileToBlob.keySet()) {
-            if (workingDirFilesList.contains(fileName) && !targetCmt.fileToBlob.containsKey(fileName)) {
-                File fileToBeDel = join(CWD, fileName);
-                restrictedDelete(fileToBeDel);
-            }
-        }
-
-        // iterate target cmt files, to overwrite and create,
-        for (String fileName: targetCmt.fileToBlob.keySet()) {
-            writeCmtFileToCWD(targetCmt, fileName);
-        }
-
-        // clear staging area/index, this means set the index to target commit mapping
-        // this is safe copy
-        TreeMap<String, String> index = new TreeMap<>(targetCmt.fileToBlob);
-        writeObject(INDEX, index);
+        // same as checkout branch
+        checkoutCommit(curHeadCmt, targetCmt);
 
         setHeadTo(cmtID);
     }
 
+    // Folds all loose objects (and any older packs) into a single packfile,
+    // so that object lookups become a binary search in one pack index
+    // instead of one file per object.
+    public static void repack() {
+        ObjectStore.repack();
+        CommitGraph.compact();
+    }
+
     public static void merge(String givenBranch) throws IOException {
 
-        TreeMap<String, String> index = readIndex();
+        Index index = Index.read();
         String curCmtHash = getHead();
         Commit curCmt = getCommit(curCmtHash);
 
@@ -535,25 +666,22 @@ public class Repository {
         // If there are staged additions or removals present, print the error message
         // You have uncommitted changes.
         // and exit
-        if (!curCmt.fileToBlob.equals(index)) {
-            message("You have uncommitted changes.");
-            System.exit(0);
+        if (!curCmt.getFileToBlob().equals(index.blobs())) {
+            throw error("You have uncommitted changes.");
         }
 
         // If a branch with the given name does not exist, print the error message
         // A branch with that name does not exist.
         File branchFile = join(HEADS_DIR, givenBranch);
         if (!branchFile.exists()) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         // If attempting to merge a branch with itself, print the error message
         // Cannot merge a branch with itself.
         String curBranch = readContentsAsString(HEAD).substring(6);
         if (curBranch.equals(givenBranch)) {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
         // get the given branch head
@@ -572,8 +700,7 @@ public class Repository {
         // the merge is complete, and the operation ends with the message
         // Given branch is an ancestor of the current branch.
         if (spCmtHash.equals(givenCmtHash)) {
-            message("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw error("Given branch is an ancestor of the current branch.");
         }
 
         // If the split point is the current branch, then the effect is to check out the given branch,
@@ -581,8 +708,7 @@ public class Repository {
         // Current branch fast-forwarded.
         if (spCmtHash.equals(curCmtHash)) {
             checkoutBranch(givenBranch);
-            message("Current branch fast-forwarded.");
-            System.exit(0);
+            throw error("Current branch fast-forwarded.");
         }
 
         // Failure case: If an untracked file in the current commit would be overwritten or deleted by the merge, print
@@ -593,9 +719,8 @@ public class Repository {
         // below is very similar code to checkout branch
         List<String> workingDirFilesList = plainFilenamesIn(CWD);
         for (String fileName: workingDirFilesList) {
-            if (!curCmt.fileToBlob.containsKey(fileName) && givenCmt.fileToBlob.containsKey(fileName)) {
-                message("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+            if (!curCmt.getFileToBlob().containsKey(fileName) && givenCmt.getFileToBlob().containsKey(fileName)) {
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
 
@@ -603,18 +728,19 @@ public class Repository {
         // !! Now do a new commit, change file contents in CWD as well
         // remember the core of 3 way merge: Apply the changes made in given (since split) onto current.
 
-        // Create a big set including all files related, so that all edge cases being handled
-        Set<String> allFiles= new HashSet<>();
-        allFiles.addAll(givenCmt.fileToBlob.keySet());
-        allFiles.addAll(curCmt.fileToBlob.keySet());
-        allFiles.addAll(spCmt.fileToBlob.keySet());
+        // A file the given branch did not change since the split point is
+        // left as it is in the current branch in every case below, so only
+        // the files that differ between the split point and the given
+        // branch are visited; directories whose trees are the same on both
+        // sides are skipped without being read.
+        Set<String> allFiles = Tree.diff(spCmt.getTree(), givenCmt.getTree());
 
         boolean conflicted = false;
 
         for (String file : allFiles) {
-            String givenBlobHash = givenCmt.fileToBlob.get(file);
-            String curBlobHash = curCmt.fileToBlob.get(file);
-            String spBlobHash = spCmt.fileToBlob.get(file);
+            String givenBlobHash = givenCmt.getFileToBlob().get(file);
+            String curBlobHash = curCmt.getFileToBlob().get(file);
+            String spBlobHash = spCmt.getFileToBlob().get(file);
 
             if (spBlobHash != null) {
                 if (givenBlobHash != null) {
@@ -687,37 +813,23 @@ public class Repository {
             //contents of file in given branch
             //>>>>>>>
 
-            // get the file contents of cur and given
-            String curContents = null;
-            String givenContents = null;
-            if (curBlobHash == null) {
-                curContents = "";
-                File givenBlobFile = join(BLOBS_DIR,givenBlobHash);
-                givenContents = readContentsAsString(givenBlobFile);
-            }
-            else if (givenBlobHash == null) {
-                givenContents = "";
-                File curBlobFile = join(BLOBS_DIR,curBlobHash);
-                curContents = readContentsAsString(curBlobFile);
-            }
-            else {
-                File curBlobFile = join(BLOBS_DIR,curBlobHash);
-                curContents = readContentsAsString(curBlobFile);
-
-                File givenBlobFile = join(BLOBS_DIR,givenBlobHash);
-                givenContents = readContentsAsString(givenBlobFile);
+            // a text file both sides changed is merged line by line (see
+            // ThreeWayMerge): only the regions changed differently on the two
+            // sides are marked, and if there are none the file merges cleanly.
+            if (spBlobHash != null && curBlobHash != null && givenBlobHash != null) {
+                ThreeWayMerge.Result merged = ThreeWayMerge.merge(BlobStore.read(spBlobHash),
+                        BlobStore.read(curBlobHash), BlobStore.read(givenBlobHash));
+                if (merged != null) {
+                    writeContents(join(CWD, file), (Object) merged.contents);
+                    index.put(file, writeBlobObj(file));
+                    conflicted |= merged.conflicted;
+                    continue;
+                }
             }
 
-
-            // new file contents
-            String newFileContents = "<<<<<<< HEAD\n" + curContents + "=======\n" + givenContents +">>>>>>>\n";
-
-            // overwrite / create file with conflict, in CWD
-            File workingFile = join(CWD, file);
-            if (!workingFile.exists()) {
-                workingFile.createNewFile();
-            }
-            writeContents(workingFile, newFileContents);
+            // overwrite / create file with conflict, in CWD.
+            // a deleted side contributes empty contents
+            writeConflictFile(file, curBlobHash, givenBlobHash);
 
             // write it as blob
             String newBlobHash = writeBlobObj(file);
@@ -728,7 +840,7 @@ public class Repository {
         }
 
         // write index object.!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
-        writeObject(INDEX, index);
+        index.write();
 
         String msg = "Merged " + givenBranch + " into " + curBranch + ".";
         commit(msg, givenCmtHash);
@@ -752,45 +864,66 @@ public class Repository {
         return readContentsAsString(join(GITLET_DIR, readContentsAsString(HEAD)));
     }
 
+    // shortest abbreviated commit id that is looked up
+    static final int MIN_PREFIX_LENGTH = 4;
+
+    /**
+     * Returns the full hash of the commit that ID names: a full id, or an
+     * abbreviation of at least MIN_PREFIX_LENGTH characters that starts
+     * exactly one commit id. Abbreviations are looked up by binary search
+     * in the sorted hashes of the commit graph.
+     * If there is no such commit, or several, prints the error and exits.
+     */
+    static String resolveCommitId(String id) {
+        if (ObjectStore.contains(ObjectStore.COMMIT, id)) {
+            return id;
+        }
+        if (id.length() >= MIN_PREFIX_LENGTH && id.length() < UID_LENGTH) {
+            CommitGraph graph = CommitGraph.load();
+            String full = graph.resolve(id);
+            if (full == null && graph.size() != ObjectStore.list(ObjectStore.COMMIT).size()) {
+                // the graph does not know commits made by an older gitlet yet
+                full = CommitGraph.rebuild().resolve(id);
+            }
+            if (full != null) {
+                return full;
+            }
+        }
+        throw error("No commit with that id exists.");
+    }
+
     /**
      * @param cmtHash target commit's hash
      * @return the commit object
      */
-    private static Commit getCommit(String cmtHash) {
-        File cmtFile = join(CMTS_DIR, cmtHash);
-        return readObject(cmtFile, Commit.class);
+    static Commit getCommit(String cmtHash) {
+        // commits never change, so one read before is still good
+        Commit cmt = CommitCache.get(cmtHash);
+        if (cmt != null) {
+            return cmt;
+        }
+        // loose under objects/commits, or in a pack
+        byte[] data = ObjectStore.read(ObjectStore.COMMIT, cmtHash);
+        if (data == null) {
+            throw error("No commit with that id exists.");
+        }
+        cmt = Commit.decode(data);
+        CommitCache.put(cmtHash, cmt);
+        return cmt;
     }
 
 
-    static String writeBlobObj(String fileName) throws IOException {
+
+    static String writeBlobObj(String fileName) {
         // create blob, save blob, with its SHA1 as its file name.
         // if blob exists, do nothing, if not then create and save.
         // return blob hash
+        // the file is read once, hashing while it is copied into objects/
         File fileToAdd = join(CWD, fileName);
-        String blobHash = sha1(readContents(fileToAdd));
-        File blob = join(BLOBS_DIR, blobHash);
-        if (!blob.exists()) {
-            blob.createNewFile();
-            writeContents(blob, readContents(fileToAdd));
-        }
-        return blobHash;
+        return BlobStore.put(fileToAdd);
     }
 
 
-    // If INDEX empty, create new structure, else read from file INDEX.
-    static TreeMap<String, String> readIndex(){
-        TreeMap<String, String> index;
-        if (INDEX.length() == 0) {
-            index = new TreeMap<>();
-        } else {
-            @SuppressWarnings("unchecked")
-            TreeMap<String, String> temp =
-                    (TreeMap<String, String>) readObject(INDEX, TreeMap.class);
-            index = temp;
-        }
-        return index;
-    }
-
     /**
      * This sets head pointer(of current branch) to provided commit.
      * @param cmtHash commit's hash.
@@ -807,99 +940,131 @@ public class Repository {
      * @param cmtHash commit's hash.
      */
     static void writeCmtObj(Commit cmt, String cmtHash) throws IOException {
-        File commitObjFile = join(CMTS_DIR, cmtHash);
-        commitObjFile.createNewFile();
-        writeObject(commitObjFile, cmt);
+        ObjectStore.writeLoose(ObjectStore.COMMIT, cmtHash, cmt.encode());
     }
 
 
+    /**
+     * Makes the CWD and the staging area match commit TARGET, coming from
+     * commit CUR, for checkout of a branch and reset.
+     * Only files that can differ are written: a file whose blob is the same
+     * in both commits is left alone when its stat data shows it still has
+     * the staged contents, and files tracked by neither commit are never
+     * touched. The new index keeps stat data for every file known to match,
+     * so the next status, add or checkout need not read them.
+     * If a working file is untracked in CUR and would be overwritten, prints
+     * the error and exits before changing anything.
+     */
+    private static void checkoutCommit(Commit cur, Commit target) throws IOException {
+        Map<String, String> curFiles = cur.getFileToBlob();
+        Map<String, String> targetFiles = target.getFileToBlob();
+
+        // this failure case occurs when in above yes/no/yes situation
+        List<String> workingDirFilesList = WorkingTree.files();
+        for (String fileName: workingDirFilesList) {
+            if (!curFiles.containsKey(fileName) && targetFiles.containsKey(fileName)) {
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
+        }
+        Set<String> workingFiles = new HashSet<>(workingDirFilesList);
+
+        // files whose blob differs between the two commits, by tree walk
+        Set<String> changed = Tree.diff(cur.getTree(), target.getTree());
+        Index index = Index.read();
+        Index next = Index.of(targetFiles);
+
+        // deletes all happen before any write; writes run in parallel
+        Materializer materializer = new Materializer();
+
+        // tracked in cur, absent in target, yes /yes /no: delete
+        for (String fileName: changed) {
+            if (workingFiles.contains(fileName) && !targetFiles.containsKey(fileName)) {
+                materializer.delete(fileName);
+            }
+        }
+
+        // overwrite and create target files, unless known to be in place
+        for (Map.Entry<String, String> e: targetFiles.entrySet()) {
+            String fileName = e.getKey();
+            if (!changed.contains(fileName) && workingFiles.contains(fileName)) {
+                Index.Stat stat = Index.Stat.of(join(CWD, fileName));
+                if (e.getValue().equals(index.get(fileName)) && index.isUnchanged(fileName, stat)) {
+                    next.put(fileName, e.getValue(), stat);
+                    continue;
+                }
+            }
+            materializer.write(fileName, e.getValue());
+        }
+        for (Map.Entry<String, Index.Stat> e: materializer.run().entrySet()) {
+            next.put(e.getKey(), targetFiles.get(e.getKey()), e.getValue());
+        }
+
+        // clear staging area/index, this means set the index to target commit mapping
+        next.write();
+    }
+
     // this assumes cmt contains that file
     // if file already exists, overwrite it
     static void writeCmtFileToCWD(Commit cmt, String fileName) throws IOException {
         // get the file content from commit
-        String fileBlobHash = cmt.fileToBlob.get(fileName);
-        File blobFile = join(BLOBS_DIR, fileBlobHash);
-        // the file content is in  readContentsAsString(blobFile)
+        String fileBlobHash = cmt.getFileToBlob().get(fileName);
 
-        // overwrite / create file, in CWD
+        // overwrite / create file, in CWD.
+        BlobStore.writeTo(fileBlobHash, join(CWD, fileName));
+    }
+
+    /**
+     * Replaces the contents of FILENAME in CWD with
+     * <<<<<<< HEAD
+     * contents of file in current branch
+     * =======
+     * contents of file in given branch
+     * >>>>>>>
+     * A null hash stands for a deleted file, with empty contents.
+     */
+    static void writeConflictFile(String fileName, String curBlobHash, String givenBlobHash)
+            throws IOException {
         File workingFile = join(CWD, fileName);
-        if (!workingFile.exists()) {
-            workingFile.createNewFile();
+        try (FileChannel out = openForWrite(workingFile)) {
+            writeFully(out, "<<<<<<< HEAD\n");
+            if (curBlobHash != null) {
+                BlobStore.copyTo(curBlobHash, out);
+            }
+            writeFully(out, "=======\n");
+            if (givenBlobHash != null) {
+                BlobStore.copyTo(givenBlobHash, out);
+            }
+            writeFully(out, ">>>>>>>\n");
+        }
+    }
+
+    // creates FILE or truncates it, ready to be written
+    private static FileChannel openForWrite(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private static void writeFully(FileChannel out, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            out.write(buf);
         }
-        writeContents(workingFile, readContentsAsString(blobFile));
     }
 
     /**
      * return the split point cmt hash.
-     * The split point is the LATEST common ancestor of the current and given branch heads
+     * The split point is the LATEST common ancestor of the current and given branch heads:
+     * a common ancestor that is not an ancestor of any other common ancestor.
      * @param branchName target branch name.
      */
     static String getSplitPointCmt(String branchName) {
-        // do Reverse BFS / DFS for both nodes, get two ancestors group.
-        // then find all common ancestors, then find the last one.
-        //
+        // paint both heads down the commit graph, newest generation first, and stop at
+        // the first commit reached from both. See CommitGraph.mergeBase.
         String curCmtHash = getHead();
         String branchCmtHash = readContentsAsString(join(HEADS_DIR, branchName));
-        // get ancestors of both branch
-        Set<String> curAncestors = getAncestors(curCmtHash);
-        Set<String> bAncestors = getAncestors(branchCmtHash);
-        // get common ancestors among two sets
-        Set<String> common = new HashSet<>(curAncestors);
-        common.retainAll(bAncestors);
-
-        // find the latest common ancestor, by timestamp!!!!!!
-        // definition: A latest common ancestor is a common ancestor that is not an ancestor of any other common ancestor
-
-        String latestCmtHash = null;
-        ZonedDateTime latestTime = null;
-        for (String cmtHash : common) {
-            Commit c = getCommit(cmtHash);
-            ZonedDateTime time = c.getTimestamp();
-            if (latestTime == null || time.isAfter(latestTime)) {
-                latestTime = time;
-                latestCmtHash = cmtHash;
-            }
-        }
-
-        return latestCmtHash;
-    }
-    /**
-     * return the commit's all ancestors.
-     * INCLUDING the commit itself.
-     *
-     * @param cmtHash commit's hash.
-     * @return a set of cmt hash, including this commit's all ancestors, and the commit itself.
-     */
-    static Set<String> getAncestors(String cmtHash) {
-        Commit curCmt = getCommit(cmtHash);
-        // 1. make a Set to store visited ancestors
-        Set<String> acsts = new HashSet<>();
-        acsts.add(cmtHash);
-        // 2. make a Stack (or Deque) for traversal
-        Stack<String> fringe = new Stack<>();
-        // 3. push the starting commit
-        fringe.push(cmtHash);
-        // 4. while stack not empty:
-        while (!fringe.empty()) {
-            // pop one commit
-            String sHash = fringe.pop();
-            // look up its parents from the map
-            Set<String> parents = getCommit(sHash).getParents();
-            if (parents != null) { // have at least one parent
-                // for each parent
-                for (String p : parents) {
-                    // if not seen before:
-                    if (!acsts.contains(p)) {
-                        // add to ancestors
-                        // push parent into stack
-                        acsts.add(p);
-                        fringe.push(p);
-                    }
-                }
-            }
-        }
-        // 5. return the set of ancestors
-        return acsts;
+        CommitGraph graph = CommitGraph.load(curCmtHash, branchCmtHash);
+        int base = graph.mergeBase(graph.find(curCmtHash), graph.find(branchCmtHash));
+        return graph.hashAt(base);
     }
 
 }
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import gitlet.LineDiff.Hunk;
+import gitlet.LineDiff.Lines;
+
+/** Line-level three-way merge of one file, diff3 style.
+ *
+ *  The split point version is diffed against the current version and
+ *  against the given version (LineDiff). The hunks of both diffs are
+ *  walked together in split point order; hunks from the two sides whose
+ *  split point ranges overlap or touch form one region, and every other
+ *  hunk is a region of its own. A region changed on one side only takes
+ *  that side's lines, one changed the same way on both takes them once,
+ *  and only a region the sides changed differently is written between
+ *  conflict markers:
+ *      <<<<<<< HEAD
+ *      lines of the current branch
+ *      =======
+ *      lines of the given branch
+ *      >>>>>>>
+ *  With merge.conflictStyle=diff3 (see Config) the split point's lines are
+ *  shown as well, after a "||||||| split point" line.
+ *
+ *  @author Qiyue Hao
+ */
+class ThreeWayMerge {
+
+    /** The outcome of a merge. */
+    static class Result {
+        /** The merged contents. */
+        final byte[] contents;
+        /** True if some region was changed differently on the two sides. */
+        final boolean conflicted;
+
+        Result(byte[] contents, boolean conflicted) {
+            this.contents = contents;
+            this.conflicted = conflicted;
+        }
+    }
+
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BASE = "||||||| split point\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Merges the changes from BASE to OURS and from BASE to THEIRS, as
+     *  merge.conflictStyle says. Returns null if any of them is binary. */
+    static Result merge(byte[] base, byte[] ours, byte[] theirs) {
+        return merge(base, ours, theirs, "diff3".equals(Config.get("merge.conflictStyle", "merge")));
+    }
+
+    /** Merges the changes from BASE to OURS and from BASE to THEIRS,
+     *  showing the split point's lines in conflicts if SHOWBASE. Returns
+     *  null if any of them is binary. */
+    static Result merge(byte[] base, byte[] ours, byte[] theirs, boolean showBase) {
+        if (LineDiff.isBinary(base) || LineDiff.isBinary(ours) || LineDiff.isBinary(theirs)) {
+            return null;
+        }
+        LineDiff.Interner interner = new LineDiff.Interner();
+        Lines b = interner.split(base);
+        Lines o = interner.split(ours);
+        Lines t = interner.split(theirs);
+        List<Hunk> oursHunks = LineDiff.diff(b.ids, o.ids);
+        List<Hunk> theirsHunks = LineDiff.diff(b.ids, t.ids);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(ours.length, theirs.length));
+        boolean conflicted = false;
+        // next hunk of each side, and how many lines each side has gained
+        // over the split point before it
+        int i = 0;
+        int j = 0;
+        int oursShift = 0;
+        int theirsShift = 0;
+        // split point lines before this are written out
+        int done = 0;
+
+        while (i < oursHunks.size() || j < theirsHunks.size()) {
+            // the region starts at the earlier hunk, and takes in every
+            // hunk of either side that overlaps or touches it
+            int lo = Math.min(i < oursHunks.size() ? oursHunks.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirsHunks.size() ? theirsHunks.get(j).aStart : Integer.MAX_VALUE);
+            int hi = lo;
+            int i0 = i;
+            int j0 = j;
+            int oStart = lo + oursShift;
+            int tStart = lo + theirsShift;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (i < oursHunks.size() && oursHunks.get(i).aStart <= hi) {
+                    Hunk h = oursHunks.get(i);
+                    hi = Math.max(hi, h.aEnd);
+                    oursShift += (h.bEnd - h.bStart) - (h.aEnd - h.aStart);
+                    i += 1;
+                    grew = true;
+                }
+                if (j < theirsHunks.size() && theirsHunks.get(j).aStart <= hi) {
+                    Hunk h = theirsHunks.get(j);
+                    hi = Math.max(hi, h.aEnd);
+                    theirsShift += (h.bEnd - h.bStart) - (h.aEnd - h.aStart);
+                    j += 1;
+                    grew = true;
+                }
+            }
+            int oEnd = hi + oursShift;
+            int tEnd = hi + theirsShift;
+
+            b.writeTo(out, done, lo);
+            if (i == i0) {
+                t.writeTo(out, tStart, tEnd);
+            } else if (j == j0 || (oEnd - oStart == tEnd - tStart
+                    && o.sameLines(oStart, oEnd, t, tStart))) {
+                o.writeTo(out, oStart, oEnd);
+            } else {
+                out.write(OURS, 0, OURS.length);
+                o.writeTo(out, oStart, oEnd);
+                if (showBase) {
+                    out.write(BASE, 0, BASE.length);
+                    b.writeTo(out, lo, hi);
+                }
+                out.write(SEPARATOR, 0, SEPARATOR.length);
+                t.writeTo(out, tStart, tEnd);
+                out.write(THEIRS, 0, THEIRS.length);
+                conflicted = true;
+            }
+            done = hi;
+        }
+        b.writeTo(out, done, b.size());
+        return new Result(out.toByteArray(), conflicted);
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A directory snapshot: a content-addressed object mapping the names in
+ *  one directory to blobs (files) or to other trees (subdirectories).
+ *
+ *  A commit references only its root tree, so an unchanged directory is one
+ *  20-byte reference shared by every commit that has it, and two snapshots
+ *  are compared by walking both trees and skipping every subtree whose
+ *  hash is the same on both sides.
+ *
+ *  Layout, stored under objects/trees like any other object:
+ *      "GTRE" | version (byte) | count (int) | entries, by name...
+ *      entry: kind (byte: 0 file, 1 directory)
+ *             | name (int length + UTF-8 bytes) | hash (20 raw bytes)
+ *  Paths in a commit's file map use '/' between directories.
+ *
+ *  @author Qiyue Hao
+ */
+class Tree {
+
+    static final byte[] MAGIC = {'G', 'T', 'R', 'E'};
+    static final byte VERSION = 1;
+
+    static final byte FILE = 0;
+    static final byte DIR = 1;
+
+    /** One name in a tree. Hashes are kept raw, so diff compares them
+     *  without making hex strings. */
+    private static class Entry {
+        final byte kind;
+        final ObjectId hash;
+
+        Entry(byte kind, ObjectId hash) {
+            this.kind = kind;
+            this.hash = hash;
+        }
+    }
+
+    /** Stores the trees of the snapshot FILES (path -> blob hash) and
+     *  returns the hash of its root tree. Only trees not stored yet are
+     *  written, so a commit changing one file writes just the trees on that
+     *  file's path. */
+    static String write(Map<String, String> files) {
+        Repository.TREES_DIR.mkdir();
+        return writeDir(new TreeMap<>(files)).name();
+    }
+
+    private static ObjectId writeDir(SortedMap<String, String> files) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        TreeMap<String, TreeMap<String, String>> dirs = new TreeMap<>();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                entries.put(path, new Entry(FILE, ObjectId.fromHex(e.getValue())));
+            } else {
+                dirs.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> d : dirs.entrySet()) {
+            entries.put(d.getKey(), new Entry(DIR, writeDir(d.getValue())));
+        }
+        byte[] data = encode(entries);
+        ObjectId id = ObjectId.fromRaw(sha1Raw(data));
+        String hash = id.name();
+        if (!ObjectStore.contains(ObjectStore.TREE, hash)) {
+            ObjectStore.writeLoose(ObjectStore.TREE, hash, data);
+        }
+        return id;
+    }
+
+    /** Returns the snapshot of root tree ROOT, as a mapping of every file
+     *  path to its blob hash. */
+    static TreeMap<String, String> read(String root) {
+        TreeMap<String, String> files = new TreeMap<>();
+        readDir(ObjectId.fromHex(root), "", files);
+        return files;
+    }
+
+    private static void readDir(ObjectId hash, String prefix, Map<String, String> into) {
+        for (Map.Entry<String, Entry> e : load(hash).entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.kind == DIR) {
+                readDir(entry.hash, prefix + e.getKey() + "/", into);
+            } else {
+                into.put(prefix + e.getKey(), entry.hash.name());
+            }
+        }
+    }
+
+    /** Returns the paths of the files that differ between root trees A and
+     *  B: present in one only, or with different blobs. Subtrees with the
+     *  same hash on both sides are not read. */
+    static Set<String> diff(String a, String b) {
+        return changes(a, b).keySet();
+    }
+
+    /** Returns the files that differ between root trees A and B, as diff
+     *  does, each with its blob hash in A and in B (null where it is not a
+     *  file). */
+    static TreeMap<String, String[]> changes(String a, String b) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        diffDir(ObjectId.fromHex(a), ObjectId.fromHex(b), "", changes);
+        return changes;
+    }
+
+    // either hash may be null, for a directory missing on that side
+    private static void diffDir(ObjectId a, ObjectId b, String prefix, Map<String, String[]> into) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, Entry> left = a == null ? new TreeMap<>() : load(a);
+        TreeMap<String, Entry> right = b == null ? new TreeMap<>() : load(b);
+        Set<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            Entry l = left.get(name);
+            Entry r = right.get(name);
+            if (l != null && r != null && l.kind == r.kind && l.hash.equals(r.hash)) {
+                continue;
+            }
+            // a file on one side and a directory on the other differ as both
+            if (l != null && l.kind == FILE || r != null && r.kind == FILE) {
+                into.put(prefix + name, new String[] {
+                    l != null && l.kind == FILE ? l.hash.name() : null,
+                    r != null && r.kind == FILE ? r.hash.name() : null});
+            }
+            ObjectId ld = l != null && l.kind == DIR ? l.hash : null;
+            ObjectId rd = r != null && r.kind == DIR ? r.hash : null;
+            if (ld != null || rd != null) {
+                diffDir(ld, rd, prefix + name + "/", into);
+            }
+        }
+    }
+
+    /** Adds to INTO, for each file that tree HASH lists directly, its
+     *  blob hash and name, keeping names already there. Repack groups blobs
+     *  by these names to find versions of one file. */
+    static void fileNames(String hash, Map<String, String> into) {
+        for (Map.Entry<String, Entry> e : load(ObjectId.fromHex(hash)).entrySet()) {
+            if (e.getValue().kind == FILE) {
+                into.putIfAbsent(e.getValue().hash.name(), e.getKey());
+            }
+        }
+    }
+
+    /* ENCODING */
+
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 48 * entries.size());
+        byte[] raw = new byte[ObjectId.RAW_LENGTH];
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(e.getValue().kind);
+                out.writeInt(name.length);
+                out.write(name);
+                e.getValue().hash.copyRawTo(raw, 0);
+                out.write(raw);
+            }
+        } catch (IOException excp) {
+            throw error("Internal error serializing tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads and decodes tree HASH. */
+    private static TreeMap<String, Entry> load(ObjectId hash) {
+        byte[] data = ObjectStore.read(ObjectStore.TREE, hash.name());
+        if (data == null) {
+            throw error("Missing tree %s.", hash);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.get() != VERSION) {
+            throw error("Bad tree %s.", hash);
+        }
+        int count = in.getInt();
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            byte kind = in.get();
+            int length = in.getInt();
+            String name = new String(data, in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            entries.put(name, new Entry(kind, ObjectId.fromRaw(data, in.position())));
+            in.position(in.position() + ObjectId.RAW_LENGTH);
+        }
+        return entries;
+    }
+}
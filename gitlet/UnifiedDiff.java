@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import gitlet.LineDiff.Hunk;
+import gitlet.LineDiff.Lines;
+
+/** Writes file diffs in unified format, as git diff does:
+ *      diff --git a/wug.txt b/wug.txt
+ *      --- a/wug.txt
+ *      +++ b/wug.txt
+ *      @@ -1,3 +1,3 @@
+ *       unchanged line
+ *      -old line
+ *      +new line
+ *  with CONTEXT unchanged lines around each change, and changes closer
+ *  than twice that in one @@ section. A missing file is /dev/null, and
+ *  binary files are only said to differ. Lines are written as the bytes
+ *  they are, one file at a time, so output starts with the first file and
+ *  nothing is ever decoded.
+ *
+ *  @author Qiyue Hao
+ */
+class UnifiedDiff {
+
+    /** Unchanged lines shown before and after each change. */
+    static final int CONTEXT = 3;
+
+    private static final byte[] NO_NEWLINE =
+            "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+    private final LineDiff.Algorithm algorithm;
+
+    /** A writer of diffs to OUT, found by the diff.algorithm (see Config;
+     *  default histogram). */
+    UnifiedDiff(OutputStream out) {
+        this.out = out;
+        this.algorithm = LineDiff.Algorithm.named(Config.get("diff.algorithm", "histogram"));
+    }
+
+    /** Writes the diff of file NAME from contents A to contents B, either
+     *  null for a file that is not there. Writes nothing if they are the
+     *  same. */
+    void file(String name, byte[] a, byte[] b) throws IOException {
+        String aName = a == null ? "/dev/null" : "a/" + name;
+        String bName = b == null ? "/dev/null" : "b/" + name;
+        byte[] left = a == null ? new byte[0] : a;
+        byte[] right = b == null ? new byte[0] : b;
+        if (LineDiff.isBinary(left) || LineDiff.isBinary(right)) {
+            if (a == null || b == null || !Arrays.equals(a, b)) {
+                write("diff --git a/" + name + " b/" + name + "\n");
+                write("Binary files " + aName + " and " + bName + " differ\n");
+            }
+            return;
+        }
+
+        LineDiff.Interner interner = new LineDiff.Interner();
+        Lines la = interner.split(left);
+        Lines lb = interner.split(right);
+        List<Hunk> hunks = LineDiff.diff(la.ids, lb.ids, algorithm);
+        if (hunks.isEmpty() && a != null && b != null) {
+            return;
+        }
+        write("diff --git a/" + name + " b/" + name + "\n");
+        if (a == null) {
+            write("new file\n");
+        } else if (b == null) {
+            write("deleted file\n");
+        }
+        if (hunks.isEmpty()) {
+            // an empty file added or deleted
+            return;
+        }
+        write("--- " + aName + "\n");
+        write("+++ " + bName + "\n");
+
+        int first = 0;
+        while (first < hunks.size()) {
+            // the hunks shown together: each starts within 2 * CONTEXT lines
+            // of the end of the one before
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Hunk h0 = hunks.get(first);
+            Hunk h1 = hunks.get(last);
+            int aStart = Math.max(0, h0.aStart - CONTEXT);
+            int aEnd = Math.min(la.size(), h1.aEnd + CONTEXT);
+            int bStart = h0.bStart - (h0.aStart - aStart);
+            int bEnd = h1.bEnd + (aEnd - h1.aEnd);
+            write("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@\n");
+            int pos = aStart;
+            for (int k = first; k <= last; k += 1) {
+                Hunk h = hunks.get(k);
+                lines(' ', la, pos, h.aStart);
+                lines('-', la, h.aStart, h.aEnd);
+                lines('+', lb, h.bStart, h.bEnd);
+                pos = h.aEnd;
+            }
+            lines(' ', la, pos, aEnd);
+            first = last + 1;
+        }
+    }
+
+    // "start,count" of lines [FROM, TO), 1-based; for no lines, the line
+    // before them
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    // writes lines [FROM, TO) of LINES, each after PREFIX
+    private void lines(char prefix, Lines lines, int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            int start = lines.starts[i];
+            int end = lines.starts[i + 1];
+            out.write(prefix);
+            out.write(lines.data, start, end - start);
+            if (lines.data[end - 1] != '\n') {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
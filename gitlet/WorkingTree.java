@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** Scans the working directory against the index for status.
+ *
+ *  Every working file is first compared with its index entry by stat data
+ *  alone; only files whose stat data does not match are read and hashed,
+ *  and those are hashed in parallel on the common ForkJoinPool.
+ *
+ *  @author Qiyue Hao
+ */
+class WorkingTree {
+
+    /** What a scan found. */
+    static class Changes {
+        /** Tracked files whose working contents differ from the index. */
+        final TreeSet<String> modified = new TreeSet<>();
+        /** Tracked files missing from the working directory. */
+        final TreeSet<String> deleted = new TreeSet<>();
+        /** Working files that are not tracked. */
+        final TreeSet<String> untracked = new TreeSet<>();
+        /** Tracked files found unchanged by hashing, with their stat data. */
+        final Map<String, Index.Stat> refreshed = new TreeMap<>();
+    }
+
+    /** Returns the names of the working files, in lexicographic order. */
+    static List<String> files() {
+        return plainFilenamesIn(Repository.CWD);
+    }
+
+    /** Compares the working directory with INDEX. */
+    static Changes scan(Index index) {
+        List<String> files = files();
+        Changes changes = new Changes();
+        Set<String> modified = ConcurrentHashMap.newKeySet();
+        Map<String, Index.Stat> unchanged = new ConcurrentHashMap<>();
+
+        files.parallelStream().forEach(name -> {
+            if (!index.containsKey(name)) {
+                return;
+            }
+            Index.Stat stat = Index.Stat.of(join(Repository.CWD, name));
+            if (stat == null) {
+                return;
+            }
+            if (!index.isUnchanged(name, stat)) {
+                String hash = BlobStore.hash(join(Repository.CWD, name));
+                if (hash.equals(index.get(name))) {
+                    unchanged.put(name, stat);
+                } else {
+                    modified.add(name);
+                }
+            }
+        });
+
+        for (String name : files) {
+            if (!index.containsKey(name)) {
+                changes.untracked.add(name);
+            }
+        }
+        TreeSet<String> present = new TreeSet<>(files);
+        for (String name : index.keySet()) {
+            if (!present.contains(name)) {
+                changes.deleted.add(name);
+            }
+        }
+        changes.modified.addAll(modified);
+        changes.refreshed.putAll(unchanged);
+        return changes;
+    }
+}
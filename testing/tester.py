@@ -113,9 +113,10 @@ def Group(n):
     return Mat.group(n)
 
 def contents(filename):
+    # Bytes, one character each, so binary files compare exactly
     try:
-        with open(filename) as inp:
-            return inp.read()
+        with open(filename, 'rb') as inp:
+            return inp.read().decode('latin-1')
     except FileNotFoundError:
         return None
 